@@ -0,0 +1,67 @@
+package com.rabbitmq.stream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+class BenchmarkUtils {
+
+  static final String STREAM = "benchmark-stream";
+
+  static Path temporaryDirectory() {
+    try {
+      return Files.createTempDirectory("local-stream-server-");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static void delete(Path directory) {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(BenchmarkUtils::deleteFile);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void deleteFile(Path file) {
+    try {
+      Files.delete(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Local server, environment and stream shared by a benchmark trial. */
+  static class LocalBroker implements AutoCloseable {
+
+    final Path directory;
+    final LocalStreamServer server;
+    final Environment environment;
+
+    LocalBroker() {
+      this(null);
+    }
+
+    LocalBroker(Codec codec) {
+      this.directory = temporaryDirectory();
+      this.server = LocalStreamServer.start(directory, 0);
+      EnvironmentBuilder builder = Environment.builder().uri(server.uri());
+      if (codec != null) {
+        builder.codec(codec);
+      }
+      this.environment = builder.build();
+      this.environment.streamCreator().stream(STREAM).create();
+    }
+
+    @Override
+    public void close() {
+      environment.close();
+      server.close();
+      delete(directory);
+    }
+  }
+}
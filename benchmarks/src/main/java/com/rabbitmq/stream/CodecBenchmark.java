@@ -0,0 +1,123 @@
+package com.rabbitmq.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of the messages of the samples with the available codecs.
+ *
+ * <p>{@link EncodedSizes} prints the size of the encoded messages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+  @Param({"qpid", "swiftmq", "light"})
+  String codecName;
+
+  /**
+   * <code>first-application</code>: long message ID, creation time and small body, <code>
+   * deduplication</code>: body only, <code>interoperability</code>: string message ID, creation
+   * time, content type, exchange and routing key annotations and small body.
+   */
+  @Param({"first-application", "deduplication", "interoperability"})
+  String shape;
+
+  Codec codec;
+  byte[] encoded;
+  long sequence;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    codec = Utils.codec(codecName);
+    Codec.EncodedMessage message = codec.encode(build());
+    // the array can be larger than the message, the broker sends only the message
+    encoded = Arrays.copyOf(message.getData(), message.getSize());
+  }
+
+  @Benchmark
+  public Message build() {
+    return build(codec, shape, sequence++);
+  }
+
+  static Message build(Codec codec, String shape, long id) {
+    MessageBuilder builder = codec.messageBuilder();
+    switch (shape) {
+      case "first-application":
+        builder
+            .properties()
+            .creationTime(System.currentTimeMillis())
+            .messageId(id)
+            .messageBuilder()
+            .addData("hello world".getBytes(StandardCharsets.UTF_8));
+        break;
+      case "deduplication":
+        builder.publishingId(id).addData("message-1".getBytes(StandardCharsets.UTF_8));
+        break;
+      default:
+        builder
+            .properties()
+            .messageId(String.valueOf(id))
+            .creationTime(System.currentTimeMillis())
+            .contentType("text/plain")
+            .messageBuilder()
+            .messageAnnotations()
+            .entry("x-exchange", "events")
+            .entry("x-routing-key", "amer")
+            .messageBuilder()
+            .addData("hello world".getBytes(StandardCharsets.UTF_8));
+    }
+    return builder.build();
+  }
+
+  @Benchmark
+  public Codec.EncodedMessage buildAndEncode() {
+    return codec.encode(build());
+  }
+
+  @Benchmark
+  public Message decode() {
+    return codec.decode(encoded);
+  }
+
+  /** Prints the encoded size of the message of each shape with each codec, in bytes. */
+  public static class EncodedSizes {
+
+    public static void main(String[] args) throws Exception {
+      String[] codecNames =
+          CodecBenchmark.class.getDeclaredField("codecName").getAnnotation(Param.class).value();
+      String[] shapes =
+          CodecBenchmark.class.getDeclaredField("shape").getAnnotation(Param.class).value();
+      StringBuilder header = new StringBuilder(String.format("%-18s", "shape"));
+      for (String codecName : codecNames) {
+        header.append(String.format(" %10s", codecName));
+      }
+      System.out.println(header);
+      for (String shape : shapes) {
+        StringBuilder row = new StringBuilder(String.format("%-18s", shape));
+        for (String codecName : codecNames) {
+          Codec codec = Utils.codec(codecName);
+          row.append(String.format(" %10d", codec.encode(build(codec, shape, 0)).getSize()));
+        }
+        System.out.println(row);
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.stream.codec.QpidProtonCodec;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message decoding and body handling as done in {@link OffsetTracking.Consume}, with a {@link
+ * String} copy of the body and with {@link MessageBody}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ConsumeBenchmark {
+
+  Codec codec;
+  byte[] encoded;
+  MessageBody.Matcher poison = MessageBody.Matcher.equalTo("poison");
+  MessageBody.Decoder<String> bodyDecoder = MessageBody.Decoder.cachingUtf8(16);
+
+  @Setup
+  public void setUp() {
+    codec = new QpidProtonCodec();
+    Message message =
+        codec
+            .messageBuilder()
+            .properties()
+            .creationTime(System.currentTimeMillis())
+            .messageId(42L)
+            .messageBuilder()
+            .addData("first wave".getBytes(StandardCharsets.UTF_8))
+            .build();
+    Codec.EncodedMessage encodedMessage = codec.encode(message);
+    encoded = new byte[encodedMessage.getSize()];
+    System.arraycopy(encodedMessage.getData(), 0, encoded, 0, encoded.length);
+  }
+
+  @Benchmark
+  public Message decode() {
+    return codec.decode(encoded);
+  }
+
+  @Benchmark
+  public boolean decodeAndReadBody() {
+    Message message = codec.decode(encoded);
+    String body = new String(message.getBodyAsBinary());
+    return "poison".equals(body);
+  }
+
+  @Benchmark
+  public boolean decodeAndMatchBody() {
+    Message message = codec.decode(encoded);
+    return MessageBody.matches(message, poison);
+  }
+
+  @Benchmark
+  public String decodeAndDecodeBodyWithCache() {
+    Message message = codec.decode(encoded);
+    return MessageBody.decode(message, bodyDecoder);
+  }
+}
@@ -0,0 +1,35 @@
+package com.rabbitmq.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Record generation and body encoding as done in the {@link Deduplication} publishers. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeduplicationBenchmark {
+
+  static final int RECORDS = 10_000;
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void records(Blackhole blackhole) {
+    Deduplication.records(0, RECORDS)
+        .forEach(
+            record -> {
+              blackhole.consume(record.id());
+              blackhole.consume(record.content().getBytes(StandardCharsets.UTF_8));
+            });
+  }
+}
@@ -0,0 +1,63 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.stream.codec.QpidProtonCodec;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Message construction as done in {@link FirstApplication.Publish}. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+
+  BenchmarkUtils.LocalBroker broker;
+  Producer producer;
+  Codec codec;
+  long sequence;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    broker = new BenchmarkUtils.LocalBroker();
+    producer = broker.environment.producerBuilder().stream(BenchmarkUtils.STREAM).build();
+    // default codec of the environment
+    codec = new QpidProtonCodec();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    producer.close();
+    broker.close();
+  }
+
+  @Benchmark
+  public Message build() {
+    return producer
+        .messageBuilder()
+        .properties()
+        .creationTime(System.currentTimeMillis())
+        .messageId(sequence++)
+        .messageBuilder()
+        .addData("hello world".getBytes(StandardCharsets.UTF_8))
+        .build();
+  }
+
+  @Benchmark
+  public Codec.EncodedMessage buildAndEncode() {
+    return codec.encode(build());
+  }
+}
@@ -0,0 +1,91 @@
+package com.rabbitmq.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Producer#send(Message, ConfirmationHandler)} with confirm callbacks, against the {@link
+ * LocalStreamServer}.
+ *
+ * <p>Each invocation publishes a batch and waits for all the confirms, so the score is the
+ * confirmed publish rate. {@link #sendWithTemplate()} publishes the same messages with a {@link
+ * MessageTemplate.Pool}, compare their {@code gc.alloc.rate.norm}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PublishBenchmark {
+
+  static final int BATCH = 10_000;
+
+  BenchmarkUtils.LocalBroker broker;
+  Producer producer;
+  MessageTemplate.Pool templateMessages;
+  CountDownLatch templateLatch;
+  byte[] body = "hello world".getBytes(StandardCharsets.UTF_8);
+  long sequence;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    broker = new BenchmarkUtils.LocalBroker(MessageTemplate.codec());
+    producer = broker.environment.producerBuilder().stream(BenchmarkUtils.STREAM).build();
+    templateMessages =
+        new MessageTemplate(body).pool(BATCH, confirmationStatus -> templateLatch.countDown());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    producer.close();
+    broker.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void sendWithConfirms() throws InterruptedException {
+    CountDownLatch confirmLatch = new CountDownLatch(BATCH);
+    for (int i = 0; i < BATCH; i++) {
+      Message message =
+          producer
+              .messageBuilder()
+              .properties()
+              .creationTime(System.currentTimeMillis())
+              .messageId(sequence++)
+              .messageBuilder()
+              .addData(body)
+              .build();
+      producer.send(message, confirmationStatus -> confirmLatch.countDown());
+    }
+    if (!confirmLatch.await(30, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("Messages not confirmed");
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void sendWithTemplate() throws InterruptedException {
+    templateLatch = new CountDownLatch(BATCH);
+    for (int i = 0; i < BATCH; i++) {
+      templateMessages.send(producer, sequence++, System.currentTimeMillis());
+    }
+    if (!templateLatch.await(30, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("Messages not confirmed");
+    }
+  }
+}
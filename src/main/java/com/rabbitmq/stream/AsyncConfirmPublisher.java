@@ -0,0 +1,164 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * AMQP 0.9.1 publisher that tracks publisher confirms asynchronously, instead of blocking in {@link
+ * Channel#waitForConfirmsOrDie()}.
+ *
+ * <p>Outstanding messages are kept by delivery tag in a sorted map, so an ack or nack with the
+ * <code>multiple</code> flag settles all the messages up to its tag. The number of outstanding
+ * messages is capped by a sliding window: {@link #publish(String, String, AMQP.BasicProperties,
+ * byte[], ConfirmHandler)} blocks when it is full and resumes as soon as a confirm comes back.
+ * Outstanding messages are nacked if the channel closes.
+ */
+public class AsyncConfirmPublisher {
+
+  private final Channel channel;
+  private final Semaphore window;
+  private final int windowSize;
+  private final ConcurrentNavigableMap<Long, Outstanding> outstanding =
+      new ConcurrentSkipListMap<>();
+  private final AtomicLong acked = new AtomicLong(0);
+  private final AtomicLong nacked = new AtomicLong(0);
+  private final Recorder latency = new Recorder(3);
+  private final Histogram accumulatedLatency = new Histogram(3);
+
+  public AsyncConfirmPublisher(Channel channel, int windowSize) throws IOException {
+    this.channel = channel;
+    this.windowSize = windowSize;
+    this.window = new Semaphore(windowSize);
+    channel.confirmSelect();
+    channel.addConfirmListener(
+        new ConfirmListener() {
+          @Override
+          public void handleAck(long deliveryTag, boolean multiple) {
+            settle(deliveryTag, multiple, true);
+          }
+
+          @Override
+          public void handleNack(long deliveryTag, boolean multiple) {
+            settle(deliveryTag, multiple, false);
+          }
+        });
+    channel.addShutdownListener(cause -> settle(Long.MAX_VALUE, true, false));
+  }
+
+  /**
+   * Publishes a message, blocking while the window is full.
+   *
+   * <p>The handler is called on the connection thread, it must not block.
+   */
+  public void publish(
+      String exchange,
+      String routingKey,
+      AMQP.BasicProperties properties,
+      byte[] body,
+      ConfirmHandler handler)
+      throws IOException, InterruptedException {
+    window.acquire();
+    // the delivery tag is the publishing order on the channel
+    synchronized (this) {
+      long deliveryTag = channel.getNextPublishSeqNo();
+      outstanding.put(deliveryTag, new Outstanding(System.nanoTime(), handler));
+      try {
+        channel.basicPublish(exchange, routingKey, properties, body);
+      } catch (IOException | RuntimeException e) {
+        if (outstanding.remove(deliveryTag) != null) {
+          window.release();
+        }
+        throw e;
+      }
+    }
+  }
+
+  private void settle(long deliveryTag, boolean multiple, boolean ack) {
+    long now = System.nanoTime();
+    if (multiple) {
+      Iterator<Map.Entry<Long, Outstanding>> iterator =
+          outstanding.headMap(deliveryTag, true).entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<Long, Outstanding> entry = iterator.next();
+        // a failed publish or a concurrent single confirm can remove it first
+        if (outstanding.remove(entry.getKey(), entry.getValue())) {
+          settle(entry.getKey(), entry.getValue(), ack, now);
+        }
+      }
+    } else {
+      Outstanding message = outstanding.remove(deliveryTag);
+      if (message != null) {
+        settle(deliveryTag, message, ack, now);
+      }
+    }
+  }
+
+  private void settle(long deliveryTag, Outstanding message, boolean ack, long now) {
+    latency.recordValue(now - message.publishedAt);
+    (ack ? acked : nacked).incrementAndGet();
+    try {
+      message.handler.handle(deliveryTag, ack);
+    } finally {
+      // after the handler, so awaitConfirms returns once all the handlers ran
+      window.release();
+    }
+  }
+
+  /** Waits until all the published messages are acked or nacked. */
+  public boolean awaitConfirms(Duration timeout) throws InterruptedException {
+    if (window.tryAcquire(windowSize, timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+      window.release(windowSize);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  public int outstanding() {
+    return outstanding.size();
+  }
+
+  public long acked() {
+    return acked.get();
+  }
+
+  public long nacked() {
+    return nacked.get();
+  }
+
+  /** Confirm latency, in nanoseconds, of all the messages settled so far. */
+  public synchronized Histogram latency() {
+    accumulatedLatency.add(latency.getIntervalHistogram());
+    return accumulatedLatency.copy();
+  }
+
+  /** Outcome of a published message. */
+  @FunctionalInterface
+  public interface ConfirmHandler {
+
+    void handle(long deliveryTag, boolean acked);
+  }
+
+  private static class Outstanding {
+
+    private final long publishedAt;
+    private final ConfirmHandler handler;
+
+    private Outstanding(long publishedAt, ConfirmHandler handler) {
+      this.publishedAt = publishedAt;
+      this.handler = handler;
+    }
+  }
+}
@@ -1,9 +1,12 @@
 package com.rabbitmq.stream;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -21,7 +24,7 @@ public class Deduplication {
 
     public static void main(String[] args) {
       log("Connection...");
-      try (Environment environment = Environment.builder().build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
         log("Connected. Trying to delete stream if it exists.");
         try {
           environment.deleteStream("deduplication-stream");
@@ -42,7 +45,7 @@ public class Deduplication {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment = Environment.builder().build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
         log("Connected.");
         Producer producer = environment.producerBuilder().stream("deduplication-stream").build();
         int messageCount = 10;
@@ -68,7 +71,7 @@ public class Deduplication {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment = Environment.builder().build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
         log("Connected.");
         Producer producer = environment.producerBuilder().stream("deduplication-stream").build();
         int messageCount = 20;
@@ -94,7 +97,7 @@ public class Deduplication {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment = Environment.builder().build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
         log("Connected.");
         Producer producer =
             environment.producerBuilder().stream("deduplication-stream")
@@ -125,7 +128,7 @@ public class Deduplication {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment = Environment.builder().build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
         log("Connected.");
         Producer producer =
             environment.producerBuilder().stream("deduplication-stream")
@@ -156,7 +159,7 @@ public class Deduplication {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment = Environment.builder().build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
         log("Connected.");
         Producer producer =
             environment.producerBuilder().stream("deduplication-stream")
@@ -185,11 +188,55 @@ public class Deduplication {
     }
   }
 
+  public static class PublishSmartDedupWithCheckpoint {
+
+    public static void main(String[] args) throws Exception {
+      Path file = Paths.get(System.getProperty("stream.checkpoint.file", "target/publishing-ids"));
+      try (PublishingIdCheckpoint checkpoint = PublishingIdCheckpoint.open(file)) {
+        PublishingIdCheckpoint.Entry entry = checkpoint.entry("app-1");
+        log("Local checkpoint: resume at %d", entry.lastPublishingId() + 1);
+        log("Connecting...");
+        try (Environment environment = Utils.environmentBuilder().build()) {
+          log("Connected.");
+          Producer producer =
+              environment.producerBuilder().stream("deduplication-stream")
+                  .name("app-1")
+                  .confirmTimeout(Duration.ZERO)
+                  .build();
+          int messageCount = 20;
+          long start = entry.reconcile(producer) + 1;
+          log("Starting publishing at %s", start);
+          log("Publishing %d message with deduplication enabled.", messageCount - start);
+          CountDownLatch latch = new CountDownLatch(messageCount - (int) start);
+          records(start, messageCount)
+              .forEach(
+                  record -> {
+                    Message message =
+                        producer
+                            .messageBuilder()
+                            .publishingId(record.id())
+                            .addData(record.content().getBytes(StandardCharsets.UTF_8))
+                            .build();
+                    producer.send(
+                        message,
+                        confirmationStatus -> {
+                          entry.confirmed(confirmationStatus);
+                          latch.countDown();
+                        });
+                  });
+          boolean done = latch.await(10, TimeUnit.SECONDS);
+          log("Messages confirmed? %s", done ? "yes" : "no");
+          log("Local checkpoint: last publishing ID %d", entry.lastPublishingId());
+        }
+      }
+    }
+  }
+
   public static class Consume {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment = Environment.builder().build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
         log("Connected.");
         log("Starting consuming, press Enter to exit...");
         environment.consumerBuilder().stream("deduplication-stream")
@@ -204,6 +251,92 @@ public class Deduplication {
     }
   }
 
+  /**
+   * Skips messages already seen, with a {@link SeenIdFilter} saved with the offset every <code>
+   * -Dstream.dedup.snapshot.interval</code> messages (default is 10,000) and when there is nothing
+   * new to consume.
+   */
+  public static class ConsumeIdempotent {
+
+    public static void main(String[] args) throws Exception {
+      SeenIdFilter filter =
+          SeenIdFilter.load(
+              Paths.get(System.getProperty("stream.dedup.file", "target/deduplication-seen-ids")),
+              Integer.getInteger("stream.dedup.window", 100_000),
+              Long.getLong("stream.dedup.bloom.capacity", 1_000_000),
+              Double.parseDouble(System.getProperty("stream.dedup.fpp", "0.001")));
+      int snapshotInterval = Integer.getInteger("stream.dedup.snapshot.interval", 10_000);
+      log(
+          "Seen ID filter: %,d bytes, last snapshot at offset %d",
+          filter.memory(), filter.offset());
+      log("Connecting...");
+      try (StreamMetrics metrics = StreamMetrics.fromSystemProperties();
+          Environment environment = metrics.configure(Utils.environmentBuilder()).build()) {
+        log("Connected.");
+        // the snapshot is never older than the stored offset, resuming after it is safe
+        OffsetSpecification offsetSpecification =
+            filter.offset() < 0
+                ? OffsetSpecification.first()
+                : OffsetSpecification.offset(filter.offset() + 1);
+        AtomicLong processed = new AtomicLong(0);
+        AtomicLong received = new AtomicLong(0);
+        AtomicLong lastOffset = new AtomicLong(filter.offset());
+        AtomicLong lastSnapshot = new AtomicLong(filter.offset());
+        Object lock = new Object();
+        MessageHandler handler =
+            filter.wrap(
+                (context, message) -> {
+                  if (processed.incrementAndGet() <= 100) {
+                    log("%s", new String(message.getBodyAsBinary(), StandardCharsets.UTF_8));
+                  }
+                });
+        // the last offset is stored outside of the handler, with the consumer
+        Consumer consumer =
+            metrics.consumer(
+                "deduplication-application",
+                environment.consumerBuilder().stream("deduplication-stream")
+                    .offset(offsetSpecification)
+                    .name("deduplication-application")
+                    .manualTrackingStrategy()
+                    .builder()
+                    .messageHandler(
+                        metrics.consumer(
+                            "deduplication-application",
+                            (context, message) -> {
+                              synchronized (lock) {
+                                handler.handle(context, message);
+                                lastOffset.set(context.offset());
+                                if (received.incrementAndGet() % snapshotInterval == 0) {
+                                  filter.snapshot(context.offset());
+                                  lastSnapshot.set(context.offset());
+                                  context.storeOffset();
+                                }
+                              }
+                            }))
+                    .build());
+        long count;
+        do {
+          count = received.get();
+          Thread.sleep(2000);
+        } while (received.get() != count);
+        synchronized (lock) {
+          if (lastOffset.get() != lastSnapshot.get()) {
+            filter.snapshot(lastOffset.get());
+            consumer.store(lastOffset.get());
+          }
+        }
+        consumer.close();
+        log(
+            "Received %,d messages, processed %,d, skipped %,d duplicate(s), snapshot at offset %d",
+            received.get(), processed.get(), received.get() - processed.get(), filter.offset());
+        log(
+            "Since the first run: %,d unique, %,d duplicate(s) from the window, "
+                + "%,d from the bloom filter",
+            filter.accepted(), filter.windowDuplicates(), filter.bloomDuplicates());
+      }
+    }
+  }
+
   static class Record {
 
     private final long id;
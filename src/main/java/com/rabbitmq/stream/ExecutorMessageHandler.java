@@ -0,0 +1,132 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.stream.ProcessedOffsets.Task;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Message handler that processes each message as a task of an executor, e.g. a virtual thread for
+ * each message (see {@link VirtualThreads}), so delegates can block (database, HTTP calls) without
+ * stalling the subscription and without an OS thread for each message in process.
+ *
+ * <p>At most {@code capacity} messages are in process, dispatching blocks when they are all taken.
+ * Messages with the same key (when a key extractor is set) are processed one after the other, in
+ * offset order, messages with different keys are processed concurrently. Offsets are stored as with
+ * {@link ParallelMessageHandler}: only the offset that all the messages before it have been
+ * processed.
+ *
+ * <p>{@link #close()} waits for the messages in process, stores the last processed offset, and
+ * shuts down the executor, it must be called before closing the consumer. Messages dispatched after
+ * are ignored.
+ */
+public class ExecutorMessageHandler implements MessageHandler, AutoCloseable {
+
+  private final ExecutorService executor;
+  private final Function<Message, ?> keyExtractor;
+  private final MessageHandler delegate;
+  private final ProcessedOffsets offsets;
+  private final ReentrantLock lock = new ReentrantLock();
+  // guarded by lock, tasks waiting for the task in process with the same key
+  private final Map<Object, Queue<Task>> waiting = new HashMap<>();
+
+  static void log(String format, Object... arguments) {
+    System.out.println(String.format(format, arguments));
+  }
+
+  /**
+   * @param storeEvery stores the processed offset every {@code storeEvery} messages, 0 to store
+   *     only when the delegate asks
+   */
+  public ExecutorMessageHandler(
+      ExecutorService executor,
+      Function<Message, ?> keyExtractor,
+      int capacity,
+      int storeEvery,
+      MessageHandler delegate) {
+    this.executor = executor;
+    this.keyExtractor = keyExtractor;
+    this.delegate = delegate;
+    this.offsets = new ProcessedOffsets(capacity, storeEvery);
+  }
+
+  @Override
+  public void handle(Context context, Message message) {
+    long sequence = offsets.register(context);
+    if (sequence < 0) {
+      return;
+    }
+    Task task = new Task(context.consumer(), context.offset(), message, sequence);
+    Object key = keyExtractor == null ? null : keyExtractor.apply(message);
+    if (key == null) {
+      executor.execute(() -> process(task));
+      return;
+    }
+    lock.lock();
+    try {
+      Queue<Task> queue = waiting.get(key);
+      if (queue != null) {
+        // a task with the same key is in process, it will run this one after
+        queue.add(task);
+        return;
+      }
+      waiting.put(key, new ArrayDeque<>());
+    } finally {
+      lock.unlock();
+    }
+    executor.execute(() -> processKey(key, task));
+  }
+
+  private void processKey(Object key, Task first) {
+    Task task = first;
+    while (task != null) {
+      process(task);
+      lock.lock();
+      try {
+        task = waiting.get(key).poll();
+        if (task == null) {
+          waiting.remove(key);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void process(Task task) {
+    try {
+      delegate.handle(task, task.message);
+    } catch (Exception e) {
+      // same as the client: the message counts as processed
+      log("Error while processing message at offset %d: %s", task.offset, e.getMessage());
+    }
+    offsets.processed(task);
+  }
+
+  /** The offset that all the messages before it have been processed, -1 if none. */
+  public long processedOffset() {
+    return offsets.processedOffset();
+  }
+
+  @Override
+  public void close() {
+    offsets.close();
+    try {
+      if (!offsets.awaitProcessed(TimeUnit.SECONDS.toMillis(10))) {
+        log(
+            "Messages still in process after 10 seconds, storing offset %d",
+            offsets.processedOffset());
+      }
+    } catch (InterruptedException e) {
+      // stores what has been processed so far
+      Thread.currentThread().interrupt();
+    }
+    executor.shutdown();
+    offsets.store();
+  }
+}
@@ -0,0 +1,395 @@
+package com.rabbitmq.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the records of a file with a deduplicating producer.
+ *
+ * <p>The file is memory-mapped and records are copied once, from the mapped file to the encoded
+ * message (no {@link String}, no intermediate array). The publishing ID of a record is its position
+ * in the file, so publishing resumes after the last confirmed record by seeking to it.
+ *
+ * <p>Settings: <code>-Dstream.file</code> (default is <code>target/ingestion.txt</code>), <code>
+ * -Dstream.file.format</code> (<code>lines</code>, the default, or <code>length-prefixed</code>,
+ * records preceded by their length as a 4-byte integer) and <code>-Dstream.records</code> (number
+ * of records to generate, default is 1,000,000).
+ */
+public class FileIngestion {
+
+  static final String STREAM = "ingestion-stream";
+
+  static void log(String format, Object... arguments) {
+    System.out.println(String.format(format, arguments));
+  }
+
+  static Path file() {
+    return Paths.get(System.getProperty("stream.file", "target/ingestion.txt"));
+  }
+
+  static Format format() {
+    return Format.valueOf(
+        System.getProperty("stream.file.format", "lines").toUpperCase().replace('-', '_'));
+  }
+
+  enum Format {
+    LINES,
+    LENGTH_PREFIXED
+  }
+
+  public static class GenerateFile {
+
+    public static void main(String[] args) throws Exception {
+      Path file = file();
+      Format format = format();
+      int recordCount = Integer.getInteger("stream.records", 1_000_000);
+      log("Writing %,d records to %s (%s)...", recordCount, file, format);
+      if (file.toAbsolutePath().getParent() != null) {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+      }
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+        for (int i = 0; i < recordCount; i++) {
+          byte[] record = ("record " + i).getBytes(StandardCharsets.UTF_8);
+          if (format == Format.LINES) {
+            out.write(record);
+            out.write('\n');
+          } else {
+            out.writeInt(record.length);
+            out.write(record);
+          }
+        }
+      }
+      log("File written (%,d bytes)", Files.size(file));
+    }
+  }
+
+  public static class Publish {
+
+    public static void main(String[] args) throws Exception {
+      Path file = file();
+      Format format = format();
+      log("Connecting...");
+      try (Environment environment =
+          Utils.environmentBuilder().codec(MessageTemplate.codec()).build()) {
+        log("Connected");
+
+        environment.streamCreator().stream(STREAM).create();
+        Producer producer =
+            environment.producerBuilder().stream(STREAM)
+                .name("ingestion-1")
+                .confirmTimeout(Duration.ZERO)
+                .build();
+
+        long lastPublishingId = producer.getLastPublishingId();
+        try (RecordReader reader = RecordReader.resumeAfter(file, format, lastPublishingId)) {
+          log("Publishing %s from position %,d", file, reader.nextPosition());
+          long start = System.nanoTime();
+          Result result = publish(producer, reader);
+          long duration = System.nanoTime() - start;
+          log(
+              "%,d records (%,d MB) published in %d ms, %,d confirmed, %,d failed",
+              result.records,
+              result.bytes / (1024 * 1024),
+              TimeUnit.NANOSECONDS.toMillis(duration),
+              result.confirmed.get(),
+              result.failed.get());
+        }
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  /** Sends all the remaining records of the reader and waits for their confirmation. */
+  static Result publish(Producer producer, RecordReader reader) throws InterruptedException {
+    Result result = new Result();
+    ConfirmationHandler confirmationHandler =
+        confirmationStatus -> {
+          if (confirmationStatus.isConfirmed()) {
+            result.confirmed.incrementAndGet();
+          } else {
+            result.failed.incrementAndGet();
+          }
+        };
+    while (reader.next()) {
+      producer.send(reader.message(), confirmationHandler);
+      result.records++;
+      result.bytes += reader.length();
+    }
+    Utils.waitAtMost(60, () -> result.confirmed.get() + result.failed.get() == result.records);
+    return result;
+  }
+
+  static class Result {
+
+    private final AtomicLong confirmed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long records, bytes;
+  }
+
+  /**
+   * Reads the records of a file through memory-mapped windows.
+   *
+   * <p>A window is re-mapped when a record goes past its end, so files can be larger than the 2 GB
+   * limit of a mapping, but a record cannot be larger than a window.
+   */
+  static class RecordReader implements AutoCloseable {
+
+    private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final Format format;
+    private final long fileSize;
+    private final int windowSize;
+    private MappedByteBuffer window;
+    private long windowPosition;
+    private long next;
+    private long position = -1;
+    private int offset, length;
+
+    RecordReader(Path file, Format format, long position) {
+      this(file, format, position, WINDOW_SIZE);
+    }
+
+    RecordReader(Path file, Format format, long position, int windowSize) {
+      this.windowSize = windowSize;
+      try {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (position < 0 || position > fileSize) {
+        close();
+        throw new IllegalArgumentException(
+            "Position " + position + " outside of the file (" + fileSize + " bytes)");
+      }
+      this.format = format;
+      this.next = position;
+      map(position);
+    }
+
+    /**
+     * Reader positioned after the record at {@code lastPublishingId}, at the beginning if 0.
+     *
+     * @throws IllegalArgumentException if there is no record at this position (e.g. the file is not
+     *     the one the publishing ID comes from): the position is past the end of the file or, for
+     *     lines, not at the beginning of a line. Length-prefixed records cannot be checked without
+     *     reading the file from the beginning, only the range of the position is.
+     */
+    static RecordReader resumeAfter(Path file, Format format, long lastPublishingId) {
+      // the broker returns 0 for "no publishing ID", re-sending the first record is harmless
+      RecordReader reader = new RecordReader(file, format, lastPublishingId);
+      if (lastPublishingId > 0 && format == Format.LINES && !reader.afterNewLine()) {
+        reader.close();
+        throw new IllegalArgumentException(
+            "Last publishing ID " + lastPublishingId + " is not at the beginning of a line");
+      }
+      if (lastPublishingId > 0 && !reader.next()) {
+        reader.close();
+        throw new IllegalArgumentException(
+            "Last publishing ID " + lastPublishingId + " is past the end of the file");
+      }
+      return reader;
+    }
+
+    // whether the byte before the next record is a new line
+    private boolean afterNewLine() {
+      ByteBuffer previous = ByteBuffer.allocate(1);
+      try {
+        while (previous.hasRemaining()) {
+          if (channel.read(previous, next - 1 + previous.position()) < 0) {
+            return false;
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return previous.get(0) == '\n';
+    }
+
+    private void map(long from) {
+      try {
+        this.windowPosition = from;
+        this.window =
+            channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(windowSize, fileSize - from));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    boolean next() {
+      if (next >= fileSize) {
+        return false;
+      }
+      if (parse()) {
+        return true;
+      }
+      if (windowPosition + window.capacity() < fileSize) {
+        map(next);
+        if (!parse()) {
+          throw new IllegalStateException("Record at position " + next + " larger than window");
+        }
+        return true;
+      }
+      return false;
+    }
+
+    // finds the record at next in the current window, false if it goes past the window end
+    private boolean parse() {
+      int start = (int) (next - windowPosition);
+      int limit = window.capacity();
+      int end;
+      if (format == Format.LINES) {
+        int newLine = start;
+        while (newLine < limit && window.get(newLine) != '\n') {
+          newLine++;
+        }
+        if (newLine == limit && windowPosition + limit < fileSize) {
+          return false;
+        }
+        this.offset = start;
+        this.length = newLine - start;
+        end = Math.min(newLine + 1, limit);
+      } else {
+        if (start + 4 > limit) {
+          if (windowPosition + limit < fileSize) {
+            return false;
+          }
+          throw new IllegalStateException("Truncated record at position " + next);
+        }
+        int recordLength = window.getInt(start);
+        if (recordLength < 0) {
+          throw new IllegalStateException("Invalid record length at position " + next);
+        }
+        if ((long) start + 4 + recordLength > limit) {
+          if (windowPosition + limit < fileSize) {
+            return false;
+          }
+          throw new IllegalStateException("Truncated record at position " + next);
+        }
+        this.offset = start + 4;
+        this.length = recordLength;
+        end = start + 4 + recordLength;
+      }
+      this.position = next;
+      this.next = windowPosition + end;
+      return true;
+    }
+
+    /** Position of the current record, its publishing ID. */
+    long position() {
+      return position;
+    }
+
+    long nextPosition() {
+      return next;
+    }
+
+    int length() {
+      return length;
+    }
+
+    /** The current record as a pre-encoded AMQP 1.0 message (a single data section). */
+    Message message() {
+      int headerSize = length <= 0xFF ? 5 : 8;
+      byte[] encoded = new byte[headerSize + length];
+      encoded[0] = 0x00;
+      encoded[1] = 0x53;
+      encoded[2] = 0x75;
+      if (headerSize == 5) {
+        encoded[3] = (byte) 0xa0;
+        encoded[4] = (byte) length;
+      } else {
+        encoded[3] = (byte) 0xb0;
+        encoded[4] = (byte) (length >>> 24);
+        encoded[5] = (byte) (length >>> 16);
+        encoded[6] = (byte) (length >>> 8);
+        encoded[7] = (byte) length;
+      }
+      // the only copy of the record
+      MappedByteBuffer source = window;
+      source.position(offset);
+      source.get(encoded, headerSize, length);
+      return new RecordMessage(position, encoded, headerSize);
+    }
+
+    @Override
+    public void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  static class RecordMessage implements Message, MessageTemplate.PreEncoded {
+
+    private final long publishingId;
+    private final Codec.EncodedMessage encoded;
+    private final int bodyOffset;
+
+    RecordMessage(long publishingId, byte[] encoded, int bodyOffset) {
+      this.publishingId = publishingId;
+      this.encoded = new Codec.EncodedMessage(encoded.length, encoded);
+      this.bodyOffset = bodyOffset;
+    }
+
+    @Override
+    public Codec.EncodedMessage encoded() {
+      return encoded;
+    }
+
+    @Override
+    public boolean hasPublishingId() {
+      return true;
+    }
+
+    @Override
+    public long getPublishingId() {
+      return publishingId;
+    }
+
+    @Override
+    public byte[] getBodyAsBinary() {
+      return Arrays.copyOfRange(encoded.getData(), bodyOffset, encoded.getSize());
+    }
+
+    @Override
+    public Object getBody() {
+      return getBodyAsBinary();
+    }
+
+    @Override
+    public Properties getProperties() {
+      return null;
+    }
+
+    @Override
+    public Map<String, Object> getApplicationProperties() {
+      return null;
+    }
+
+    @Override
+    public Map<String, Object> getMessageAnnotations() {
+      return null;
+    }
+  }
+}
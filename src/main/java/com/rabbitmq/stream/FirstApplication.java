@@ -1,9 +1,17 @@
 package com.rabbitmq.stream;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.IntStream;
 
 public class FirstApplication {
@@ -15,8 +23,8 @@ public class FirstApplication {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment =
-          Environment.builder().uri("rabbitmq-stream://localhost:5552").build()) {
+      try (StreamMetrics metrics = StreamMetrics.fromSystemProperties();
+          Environment environment = metrics.configure(Utils.environmentBuilder()).build()) {
 
         log("Connected");
 
@@ -26,7 +34,9 @@ public class FirstApplication {
 
         log("Creating producer...");
         Producer producer =
-            environment.producerBuilder().stream("first-application-stream").build();
+            metrics.producer(
+                "first-application",
+                environment.producerBuilder().stream("first-application-stream").build());
         log("Producer created");
 
         long start = System.currentTimeMillis();
@@ -37,8 +47,7 @@ public class FirstApplication {
             .forEach(
                 i -> {
                   Message message =
-                      producer
-                          .messageBuilder()
+                      LatencyRecorder.stamp(producer.messageBuilder())
                           .properties()
                           .creationTime(System.currentTimeMillis())
                           .messageId(i)
@@ -58,12 +67,103 @@ public class FirstApplication {
     }
   }
 
-  public static class Consume {
+  public static class PublishWithTemplate {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
       try (Environment environment =
-          Environment.builder().uri("rabbitmq-stream://localhost:5552").build()) {
+          Utils.environmentBuilder().codec(MessageTemplate.codec()).build()) {
+
+        log("Connected");
+
+        log("Creating stream...");
+        environment.streamCreator().stream("first-application-stream").create();
+        log("Stream created");
+
+        log("Creating producer...");
+        Producer producer =
+            environment.producerBuilder().stream("first-application-stream").build();
+        log("Producer created");
+
+        long start = System.currentTimeMillis();
+        int messageCount = 1_000_000;
+        CountDownLatch confirmLatch = new CountDownLatch(messageCount);
+        MessageTemplate.Pool messages =
+            new MessageTemplate("hello world".getBytes(StandardCharsets.UTF_8))
+                .pool(10_000, confirmationStatus -> confirmLatch.countDown());
+        log("Sending %,d messages", messageCount);
+        for (int i = 0; i < messageCount; i++) {
+          messages.send(producer, i, System.currentTimeMillis());
+        }
+        log("Messages sent, waiting for confirmation...");
+        boolean done = confirmLatch.await(1, TimeUnit.MINUTES);
+        log(
+            "All messages confirmed? %s (%d ms)",
+            done ? "yes" : "no", (System.currentTimeMillis() - start));
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class PublishWithFlowControl {
+
+    public static void main(String[] args) throws Exception {
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+
+        log("Connected");
+
+        log("Creating stream...");
+        environment.streamCreator().stream("first-application-stream").create();
+        log("Stream created");
+
+        log("Creating producer...");
+        FlowControlledProducer producer =
+            new FlowControlledProducer(
+                environment.producerBuilder().stream("first-application-stream").build());
+        log("Producer created");
+
+        long start = System.currentTimeMillis();
+        int messageCount = 1_000_000;
+        log("Sending %,d messages", messageCount);
+        for (int i = 0; i < messageCount; i++) {
+          Message message =
+              LatencyRecorder.stamp(producer.messageBuilder())
+                  .properties()
+                  .creationTime(System.currentTimeMillis())
+                  .messageId(i)
+                  .messageBuilder()
+                  .addData("hello world".getBytes(StandardCharsets.UTF_8))
+                  .build();
+          producer.send(message, confirmationStatus -> {});
+          if ((i + 1) % 100_000 == 0) {
+            log(
+                "Sent %,d messages, window %,d, confirm latency %,d us",
+                i + 1, producer.window(), producer.lastRoundLatency() / 1000);
+          }
+        }
+        log("Messages sent, waiting for confirmation...");
+        boolean done = producer.awaitConfirms(Duration.ofMinutes(1));
+        log(
+            "All messages confirmed? %s (%d ms, %,d confirmed, %,d failed, %,d windows)",
+            done ? "yes" : "no",
+            (System.currentTimeMillis() - start),
+            producer.confirmed(),
+            producer.failed(),
+            producer.rounds());
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class Consume {
+
+    public static void main(String[] args) throws Exception {
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build();
+          LatencyRecorder latency = LatencyRecorder.fromSystemProperties("consumer")) {
 
         log("Connected");
 
@@ -73,7 +173,11 @@ public class FirstApplication {
         Consumer consumer =
             environment.consumerBuilder().stream("first-application-stream")
                 .offset(OffsetSpecification.first())
-                .messageHandler((context, message) -> messageConsumed.incrementAndGet())
+                .messageHandler(
+                    (context, message) -> {
+                      latency.record(message);
+                      messageConsumed.incrementAndGet();
+                    })
                 .build();
 
         Utils.waitAtMost(60, () -> messageConsumed.get() >= 1_000_000);
@@ -85,4 +189,189 @@ public class FirstApplication {
       log("Environment closed");
     }
   }
+
+  /**
+   * The publisher and the consumer as a load tool, configured with system properties (see {@link
+   * LoadGenerator.Settings}).
+   */
+  public static class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+      LoadGenerator.Settings settings = LoadGenerator.Settings.fromSystemProperties();
+      log("Connecting...");
+      try (StreamMetrics metrics = StreamMetrics.fromSystemProperties();
+          Environment environment = metrics.configure(Utils.environmentBuilder()).build()) {
+
+        log("Connected");
+
+        log("Running load: %s", settings);
+        LoadGenerator.Result result = new LoadGenerator(settings).run(environment);
+        log("%s", result);
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class IndexTimestamps {
+
+    public static void main(String[] args) throws Exception {
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build();
+          TimestampIndex index = timestampIndex()) {
+
+        log("Connected");
+
+        long start = index.nextOffset();
+        log("Indexing from offset %,d...", start);
+        Consumer consumer =
+            environment.consumerBuilder().stream("first-application-stream")
+                .offset(OffsetSpecification.offset(start))
+                .messageHandler(index.indexer())
+                .build();
+        // stops when there is nothing new to index
+        long indexed;
+        do {
+          indexed = index.nextOffset();
+          Thread.sleep(2000);
+        } while (index.nextOffset() != indexed);
+        consumer.close();
+        log("Indexed up to offset %,d, %,d sample(s)", index.nextOffset(), index.samples());
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class ConsumeFrom {
+
+    public static void main(String[] args) throws Exception {
+      long from = parseTime(System.getProperty("stream.from", "00:00"));
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build();
+          TimestampIndex index = timestampIndex()) {
+
+        log("Connected");
+
+        OffsetSpecification offsetSpecification = index.offsetSpecification(from);
+        log(
+            "Consuming messages created from %tF %<tT.%<tL, starting at %s",
+            from,
+            offsetSpecification.isOffset()
+                ? String.format("offset %,d from the index", offsetSpecification.getOffset())
+                : "the broker's timestamp lookup");
+        AtomicLong consumed = new AtomicLong(0);
+        AtomicLong first = new AtomicLong(-1);
+        long start = System.currentTimeMillis();
+        Consumer consumer =
+            environment.consumerBuilder().stream("first-application-stream")
+                .offset(offsetSpecification)
+                .messageHandler(
+                    TimestampIndex.from(
+                        from,
+                        (context, message) -> {
+                          if (first.compareAndSet(-1, context.offset())) {
+                            Properties properties = message.getProperties();
+                            log(
+                                "First message at offset %,d, created at %s (%d ms)",
+                                context.offset(),
+                                properties == null || properties.getCreationTime() == 0
+                                    ? "unknown time"
+                                    : String.format("%tF %<tT.%<tL", properties.getCreationTime()),
+                                System.currentTimeMillis() - start);
+                          }
+                          consumed.incrementAndGet();
+                        }))
+                .build();
+        long count;
+        do {
+          count = consumed.get();
+          Thread.sleep(2000);
+        } while (consumed.get() != count);
+        consumer.close();
+        log("Consumed %,d messages", consumed.get());
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  /**
+   * Reads the whole stream with a consumer for each chunk of offsets (<code>
+   * -Dstream.backfill.chunks
+   * </code>, default is the number of processors), in offset order if <code>
+   * -Dstream.backfill.ordered</code> is true.
+   */
+  public static class Backfill {
+
+    public static void main(String[] args) throws Exception {
+      int chunkCount =
+          Integer.getInteger("stream.backfill.chunks", Runtime.getRuntime().availableProcessors());
+      boolean ordered = Boolean.getBoolean("stream.backfill.ordered");
+      log("Connecting...");
+      // one connection by consumer, so the chunks are read in parallel
+      try (Environment environment =
+          Utils.environmentBuilder().maxConsumersByConnection(1).build()) {
+
+        log("Connected");
+
+        RangeBackfill.Range range =
+            RangeBackfill.discover(environment, "first-application-stream", Duration.ofSeconds(5));
+        if (range == null) {
+          log("The stream is empty");
+          return;
+        }
+        List<RangeBackfill.Range> chunks =
+            RangeBackfill.split(range.first(), range.last(), chunkCount);
+        log(
+            "Backfilling offsets %s (%,d messages) in %d chunk(s), %s",
+            range, range.count(), chunks.size(), ordered ? "ordered" : "unordered");
+        AtomicLong bytes = new AtomicLong(0);
+        AtomicLong lastOffset = new AtomicLong(-1);
+        AtomicLong outOfOrder = new AtomicLong(0);
+        long start = System.currentTimeMillis();
+        long count =
+            new RangeBackfill<>(
+                    environment,
+                    "first-application-stream",
+                    chunks,
+                    (offset, message) ->
+                        new String(message.getBodyAsBinary(), StandardCharsets.UTF_8),
+                    (offset, body) -> {
+                      if (offset < lastOffset.getAndSet(offset)) {
+                        outOfOrder.incrementAndGet();
+                      }
+                      bytes.addAndGet(body.length());
+                    },
+                    ordered,
+                    10_000,
+                    Duration.ofSeconds(10))
+                .run();
+        long elapsed = System.currentTimeMillis() - start;
+        log(
+            "Backfilled %,d messages (%,d bytes) in %,d ms (%,d msg/s), %,d out of order",
+            count, bytes.get(), elapsed, count * 1000 / Math.max(1, elapsed), outOfOrder.get());
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  static TimestampIndex timestampIndex() {
+    return TimestampIndex.open(
+        Paths.get(System.getProperty("stream.index.file", "target/first-application-timestamps")),
+        Long.getLong("stream.index.interval", 100));
+  }
+
+  /** Epoch milliseconds, a local date-time, or a local time of today. */
+  static long parseTime(String value) {
+    if (value.chars().allMatch(Character::isDigit)) {
+      return Long.parseLong(value);
+    }
+    LocalDateTime dateTime =
+        value.contains("T")
+            ? LocalDateTime.parse(value)
+            : LocalDateTime.of(LocalDate.now(), LocalTime.parse(value));
+    return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
 }
@@ -0,0 +1,198 @@
+package com.rabbitmq.stream;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Producer wrapper with an explicit, adaptive window of unconfirmed messages.
+ *
+ * <p>The window is adjusted each time a window's worth of messages is confirmed (a "round"): it
+ * grows when the round confirms fast, shrinks by a quarter when the average confirm latency of the
+ * round goes above {@code latencyTolerance} times the baseline latency, and is halved when the
+ * round contains failed confirms.
+ *
+ * <p>The minimum window should not be below the {@link ProducerBuilder#batchSize(int)} of the
+ * producer (100 by default), otherwise messages wait in the client for the batch publishing delay.
+ * The maximum window should not exceed the {@link ProducerBuilder#maxUnconfirmedMessages(int)} of
+ * the producer (10,000 by default), otherwise the client blocks on its own.
+ */
+public class FlowControlledProducer implements AutoCloseable {
+
+  private final Producer producer;
+  private final int minWindow;
+  private final int maxWindow;
+  private final double latencyTolerance;
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+  private final Object monitor = new Object();
+  private volatile int window;
+  private volatile int waiters = 0;
+
+  // round accounting, guarded by monitor
+  private int roundConfirmed, roundFailed;
+  private long roundLatency, baselineLatency, lastRoundLatency;
+  private long confirmed, failed, rounds;
+
+  public FlowControlledProducer(Producer producer) {
+    this(producer, 1_000, 100, 10_000, 2.0);
+  }
+
+  public FlowControlledProducer(
+      Producer producer, int initialWindow, int minWindow, int maxWindow, double latencyTolerance) {
+    if (minWindow <= 0 || minWindow > initialWindow || initialWindow > maxWindow) {
+      throw new IllegalArgumentException("Expected 0 < min window <= initial window <= max window");
+    }
+    this.producer = producer;
+    this.window = initialWindow;
+    this.minWindow = minWindow;
+    this.maxWindow = maxWindow;
+    this.latencyTolerance = latencyTolerance;
+  }
+
+  public MessageBuilder messageBuilder() {
+    return producer.messageBuilder();
+  }
+
+  /** Sends the message if the window allows it, returns false immediately otherwise. */
+  public boolean trySend(Message message, ConfirmationHandler confirmationHandler) {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= window) {
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+    long start = System.nanoTime();
+    producer.send(
+        message,
+        confirmationStatus -> {
+          try {
+            account(confirmationStatus.isConfirmed(), System.nanoTime() - start);
+            confirmationHandler.handle(confirmationStatus);
+          } finally {
+            release();
+          }
+        });
+    return true;
+  }
+
+  /** Sends the message, waiting for room in the window. */
+  public void send(Message message, ConfirmationHandler confirmationHandler)
+      throws InterruptedException {
+    while (!trySend(message, confirmationHandler)) {
+      synchronized (monitor) {
+        waiters++;
+        try {
+          if (inFlight.get() >= window) {
+            monitor.wait(100);
+          }
+        } finally {
+          waiters--;
+        }
+      }
+    }
+  }
+
+  /** Waits for all the messages sent so far to be confirmed (or failed). */
+  public boolean awaitConfirms(Duration timeout) throws InterruptedException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    synchronized (monitor) {
+      waiters++;
+      try {
+        while (inFlight.get() > 0) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          monitor.wait(Math.max(1, remaining / 1_000_000));
+        }
+        return true;
+      } finally {
+        waiters--;
+      }
+    }
+  }
+
+  public int window() {
+    return window;
+  }
+
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  public long confirmed() {
+    synchronized (monitor) {
+      return confirmed;
+    }
+  }
+
+  public long failed() {
+    synchronized (monitor) {
+      return failed;
+    }
+  }
+
+  public long rounds() {
+    synchronized (monitor) {
+      return rounds;
+    }
+  }
+
+  /** Average confirm latency of the last complete round, in nanoseconds. */
+  public long lastRoundLatency() {
+    synchronized (monitor) {
+      return lastRoundLatency;
+    }
+  }
+
+  private void account(boolean ok, long latency) {
+    synchronized (monitor) {
+      if (ok) {
+        confirmed++;
+        roundConfirmed++;
+      } else {
+        failed++;
+        roundFailed++;
+      }
+      roundLatency += latency;
+      int roundSize = roundConfirmed + roundFailed;
+      if (roundSize >= window) {
+        long average = roundLatency / roundSize;
+        if (baselineLatency == 0 || average < baselineLatency) {
+          baselineLatency = average;
+        } else {
+          // let the baseline follow slowly, a single fast round should not pin it forever
+          baselineLatency += (average - baselineLatency) / 16;
+        }
+        int newWindow = window;
+        if (roundFailed > 0) {
+          newWindow = newWindow / 2;
+        } else if (average > baselineLatency * latencyTolerance) {
+          newWindow = newWindow - newWindow / 4;
+        } else {
+          newWindow = newWindow + Math.max(1, newWindow / 8);
+        }
+        window = Math.max(minWindow, Math.min(maxWindow, newWindow));
+        lastRoundLatency = average;
+        rounds++;
+        roundConfirmed = 0;
+        roundFailed = 0;
+        roundLatency = 0;
+      }
+    }
+  }
+
+  private void release() {
+    inFlight.decrementAndGet();
+    if (waiters > 0) {
+      synchronized (monitor) {
+        monitor.notifyAll();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    producer.close();
+  }
+}
@@ -6,10 +6,17 @@ import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.HdrHistogram.Histogram;
 
 public class Interoperability {
 
@@ -74,24 +81,302 @@ public class Interoperability {
     }
   }
 
+  public static class PublishAsync {
+
+    public static void main(String[] args) throws Exception {
+      int messageCount = Integer.getInteger("stream.messages", 1_000_000);
+      int window = Integer.getInteger("stream.confirm.window", 1_000);
+      ConnectionFactory connectionFactory = new ConnectionFactory();
+      log("Connecting...");
+      try (Connection connection = connectionFactory.newConnection()) {
+        log("Connected");
+        AsyncConfirmPublisher publisher =
+            new AsyncConfirmPublisher(connection.createChannel(), window);
+        log("Sending %,d messages, at most %,d unconfirmed", messageCount, window);
+        long start = System.nanoTime();
+        for (int i = 0; i < messageCount; i++) {
+          int id = i;
+          publisher.publish(
+              "events",
+              REGIONS[i % REGIONS.length],
+              new AMQP.BasicProperties.Builder()
+                  .messageId(String.valueOf(i))
+                  .timestamp(new Date())
+                  .contentType("text/plain")
+                  .build(),
+              ("message " + i).getBytes(StandardCharsets.UTF_8),
+              (deliveryTag, acked) -> {
+                if (!acked) {
+                  log("Message #%d nacked", id);
+                }
+              });
+        }
+        publisher.publish(
+            "events",
+            "whatever",
+            null,
+            "poison".getBytes(StandardCharsets.UTF_8),
+            (deliveryTag, acked) -> {});
+        log("Messages sent, waiting for confirmation...");
+        boolean done = publisher.awaitConfirms(Duration.ofMinutes(1));
+        long duration = System.nanoTime() - start;
+        Histogram latency = publisher.latency();
+        log(
+            "All messages confirmed? %s (%d ms, %,d msg/s, %,d acked, %,d nacked)",
+            done ? "yes" : "no",
+            TimeUnit.NANOSECONDS.toMillis(duration),
+            (messageCount + 1) * 1_000_000_000L / duration,
+            publisher.acked(),
+            publisher.nacked());
+        log(
+            "Confirm latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms",
+            latency.getValueAtPercentile(50) / 1_000_000.0,
+            latency.getValueAtPercentile(99) / 1_000_000.0,
+            latency.getValueAtPercentile(99.9) / 1_000_000.0,
+            latency.getMaxValue() / 1_000_000.0);
+        log("Closing connection");
+      }
+    }
+  }
+
+  public static class BridgeQueues {
+
+    public static void main(String[] args) throws Exception {
+      String stream = System.getProperty("stream.bridge.stream", "world-backlog");
+      int prefetch = Integer.getInteger("stream.prefetch", 1_000);
+      Path file =
+          Paths.get(System.getProperty("stream.checkpoint.file", "target/bridge-publishing-ids"));
+      ConnectionFactory connectionFactory = new ConnectionFactory();
+      log("Connecting...");
+      try (PublishingIdCheckpoint checkpoint = PublishingIdCheckpoint.open(file);
+          Connection connection = connectionFactory.newConnection();
+          Environment environment = Utils.environmentBuilder().build()) {
+        log("Connected");
+        environment.streamCreator().stream(stream).create();
+        List<QueueToStreamBridge> bridges = new ArrayList<>();
+        for (String region : REGIONS) {
+          Producer producer =
+              environment.producerBuilder().stream(stream)
+                  .name("bridge-" + region)
+                  .maxUnconfirmedMessages(Math.max(prefetch * 2, 10_000))
+                  .build();
+          PublishingIdCheckpoint.Entry entry = checkpoint.entry("bridge-" + region);
+          QueueToStreamBridge bridge =
+              new QueueToStreamBridge(
+                  connection.createChannel(), region, prefetch, producer, entry);
+          log(
+              "Moving '%s' queue to '%s' stream, from publishing ID %d",
+              region, stream, bridge.firstPublishingId());
+          bridges.add(bridge.start());
+        }
+        long start = System.nanoTime();
+        Utils.waitAtMost(
+            3600,
+            () ->
+                bridges.stream()
+                    .allMatch(bridge -> bridge.idleTime() > TimeUnit.SECONDS.toNanos(5)));
+        long duration = System.nanoTime() - start - TimeUnit.SECONDS.toNanos(5);
+        bridges.forEach(QueueToStreamBridge::close);
+        long delivered = bridges.stream().mapToLong(QueueToStreamBridge::delivered).sum();
+        for (int i = 0; i < REGIONS.length; i++) {
+          QueueToStreamBridge bridge = bridges.get(i);
+          log(
+              "Queue '%s': %,d delivered, %,d acknowledged, %,d failed",
+              REGIONS[i], bridge.delivered(), bridge.acked(), bridge.failed());
+        }
+        log(
+            "Moved %,d messages in %d ms (%,d msg/s)",
+            delivered,
+            TimeUnit.NANOSECONDS.toMillis(duration),
+            delivered * 1_000_000_000L / Math.max(duration, 1));
+        log("Closing connections...");
+      }
+    }
+  }
+
+  public static class IndexWorld {
+
+    public static void main(String[] args) throws Exception {
+      RoutingKeyIndex index = routingKeyIndex();
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+        log("Connected");
+        long start = index.nextOffset();
+        log("Indexing 'world' stream from offset %,d...", start);
+        Consumer consumer =
+            environment.consumerBuilder().stream("world")
+                .offset(OffsetSpecification.offset(start))
+                .messageHandler(index.indexer(RoutingKeyIndex::routingKey))
+                .build();
+        // saves regularly and stops when there is nothing new to index
+        long indexed;
+        do {
+          indexed = index.nextOffset();
+          Thread.sleep(2000);
+          index.save();
+        } while (index.nextOffset() != indexed);
+        consumer.close();
+        log("Indexed up to offset %,d", index.nextOffset());
+        for (String key : index.keys()) {
+          List<RoutingKeyIndex.Range> ranges = index.ranges(key);
+          log(
+              "Routing key '%s': %,d message(s) in %,d range(s)",
+              key, ranges.stream().mapToLong(RoutingKeyIndex.Range::count).sum(), ranges.size());
+        }
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class ConsumeRegion {
+
+    public static void main(String[] args) throws Exception {
+      String region = System.getProperty("stream.region", "emea");
+      RoutingKeyIndex index = routingKeyIndex();
+      List<RoutingKeyIndex.Range> ranges = index.ranges(region);
+      log(
+          "Region '%s' has %,d range(s) up to offset %,d (run IndexWorld to index new messages)",
+          region, ranges.size(), index.nextOffset());
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+        log("Connected");
+        AtomicLong read = new AtomicLong(0);
+        AtomicLong matched = new AtomicLong(0);
+        long start = System.currentTimeMillis();
+        for (RoutingKeyIndex.Range range : ranges) {
+          CountDownLatch rangeDone = new CountDownLatch(1);
+          Consumer consumer =
+              environment.consumerBuilder().stream("world")
+                  .offset(OffsetSpecification.offset(range.first()))
+                  .messageHandler(
+                      (context, message) -> {
+                        // the rest of the chunk comes after the end of the range
+                        if (context.offset() > range.last()) {
+                          return;
+                        }
+                        read.incrementAndGet();
+                        if (region.equals(RoutingKeyIndex.routingKey(message))) {
+                          matched.incrementAndGet();
+                        }
+                        if (context.offset() == range.last()) {
+                          rangeDone.countDown();
+                        }
+                      })
+                  .build();
+          rangeDone.await(60, TimeUnit.SECONDS);
+          consumer.close();
+        }
+        log(
+            "Read %,d messages for %,d message(s) of region '%s' in %d ms",
+            read.get(), matched.get(), region, System.currentTimeMillis() - start);
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  /**
+   * Counts messages by region over windows of their creation time, resuming from the last snapshot
+   * of the aggregation, see {@link WindowedAggregator}.
+   */
+  public static class AggregateRegions {
+
+    public static void main(String[] args) throws Exception {
+      long size = Long.getLong("stream.window", 60);
+      long slide = Long.getLong("stream.window.slide", size);
+      int snapshotInterval = Integer.getInteger("stream.aggregation.snapshot.interval", 10_000);
+      WindowedAggregator aggregator =
+          WindowedAggregator.load(
+              Paths.get(System.getProperty("stream.aggregation.file", "target/world-aggregation")),
+              TimeUnit.SECONDS.toMillis(size),
+              TimeUnit.SECONDS.toMillis(slide),
+              TimeUnit.SECONDS.toMillis(Long.getLong("stream.window.lateness", 5)),
+              (start, end, key, count, bytes) ->
+                  log(
+                      "Window %tF %<tT - %tT, region '%s': %,d message(s), %,d byte(s)",
+                      start, end, key, count, bytes));
+      log(
+          "Aggregating by region over %d-second windows every %d second(s), from offset %d",
+          size, slide, aggregator.offset() + 1);
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+        log("Connected");
+        AtomicLong aggregated = new AtomicLong(0);
+        AtomicLong lastOffset = new AtomicLong(aggregator.offset());
+        MessageHandler handler = aggregator.aggregator(RoutingKeyIndex::routingKey);
+        Object lock = new Object();
+        long start = System.currentTimeMillis();
+        // no offset tracking in the broker, the snapshot has the offset that matches its state
+        Consumer consumer =
+            environment.consumerBuilder().stream("world")
+                .offset(
+                    aggregator.offset() < 0
+                        ? OffsetSpecification.first()
+                        : OffsetSpecification.offset(aggregator.offset() + 1))
+                .messageHandler(
+                    (context, message) -> {
+                      synchronized (lock) {
+                        handler.handle(context, message);
+                        lastOffset.set(context.offset());
+                        if (aggregated.incrementAndGet() % snapshotInterval == 0) {
+                          aggregator.snapshot(context.offset());
+                        }
+                      }
+                    })
+                .build();
+        // stops when there is nothing new to aggregate
+        long count;
+        do {
+          count = aggregated.get();
+          Thread.sleep(2000);
+        } while (aggregated.get() != count);
+        synchronized (lock) {
+          if (lastOffset.get() != aggregator.offset()) {
+            aggregator.snapshot(lastOffset.get());
+          }
+        }
+        consumer.close();
+        log(
+            "Aggregated %,d messages in %d ms, %,d late, %,d without creation time",
+            aggregated.get(),
+            System.currentTimeMillis() - start - 2000,
+            aggregator.late(),
+            aggregator.untimed());
+        for (String key : aggregator.keys()) {
+          log(
+              "Region '%s': %,d message(s), %,d byte(s) in total",
+              key, aggregator.totalCount(key), aggregator.totalBytes(key));
+        }
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  static RoutingKeyIndex routingKeyIndex() {
+    return RoutingKeyIndex.load(
+        Paths.get(System.getProperty("stream.index.file", "target/world-index")),
+        Long.getLong("stream.index.max.gap", 1_000));
+  }
+
   public static class Consume {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment =
-          Environment.builder().uri("rabbitmq-stream://localhost:5552").build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
 
         log("Connected");
 
         CountDownLatch latch = new CountDownLatch(1);
+        MessageBody.Matcher poison = MessageBody.Matcher.equalTo("poison");
         log("Start consumer...");
         Consumer consumer =
             environment.consumerBuilder().stream("world")
                 .offset(OffsetSpecification.first())
                 .messageHandler(
                     (context, message) -> {
-                      String body = new String(message.getBodyAsBinary());
-                      if ("poison".equals(body)) {
+                      if (MessageBody.matches(message, poison)) {
                         latch.countDown();
                       } else {
                         log(
@@ -0,0 +1,188 @@
+package com.rabbitmq.stream;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records publish-to-consume latency of messages.
+ *
+ * <p>Enabled with <code>-Dstream.latency=true</code>. Publishers stamp messages with {@link
+ * #stamp(MessageBuilder)}, which adds a nanosecond-precision creation time application property.
+ * Messages without it fall back on the creation time property, which has millisecond precision.
+ * Latency percentiles are reported periodically (<code>-Dstream.latency.interval</code>, in
+ * seconds) and when closing. Interval histograms can be written to a HdrHistogram log file with
+ * <code>-Dstream.latency.file</code>, to compare runs.
+ */
+public class LatencyRecorder implements AutoCloseable {
+
+  static final String ENABLED_PROPERTY = "stream.latency";
+  static final String INTERVAL_PROPERTY = "stream.latency.interval";
+  static final String FILE_PROPERTY = "stream.latency.file";
+  static final String CREATION_TIME_NANOS = "x-creation-time-nanos";
+
+  private static final long CLOCK_BASE_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+  private static final long CLOCK_BASE_NANO_TIME = System.nanoTime();
+  private static final LatencyRecorder NO_OP = new LatencyRecorder();
+
+  private final String name;
+  private final Recorder recorder;
+  private final Histogram total;
+  private final ScheduledExecutorService scheduler;
+  private final HistogramLogWriter logWriter;
+  private final PrintStream logStream;
+  private Histogram interval;
+
+  private LatencyRecorder() {
+    this.name = null;
+    this.recorder = null;
+    this.total = null;
+    this.scheduler = null;
+    this.logWriter = null;
+    this.logStream = null;
+  }
+
+  LatencyRecorder(String name, int reportIntervalInSeconds, String file) {
+    this.name = name;
+    this.recorder = new Recorder(3);
+    this.total = new Histogram(3);
+    if (file == null) {
+      this.logStream = null;
+      this.logWriter = null;
+    } else {
+      try {
+        this.logStream = new PrintStream(file);
+      } catch (FileNotFoundException e) {
+        throw new IllegalArgumentException("Cannot write latency histograms to " + file, e);
+      }
+      this.logWriter = new HistogramLogWriter(logStream);
+      this.logWriter.outputLogFormatVersion();
+      this.logWriter.outputStartTime(System.currentTimeMillis());
+      this.logWriter.outputComment("publish-to-consume latency for " + name + ", in nanoseconds");
+      this.logWriter.outputLegend();
+    }
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "latency-recorder-" + name);
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.scheduler.scheduleAtFixedRate(
+        this::report, reportIntervalInSeconds, reportIntervalInSeconds, TimeUnit.SECONDS);
+  }
+
+  static void log(String format, Object... arguments) {
+    System.out.println(String.format(format, arguments));
+  }
+
+  /** Recorder configured from system properties, a no-op one if latency is not enabled. */
+  public static LatencyRecorder fromSystemProperties(String name) {
+    if (enabled()) {
+      return new LatencyRecorder(
+          name, Integer.getInteger(INTERVAL_PROPERTY, 5), System.getProperty(FILE_PROPERTY));
+    } else {
+      return NO_OP;
+    }
+  }
+
+  static boolean enabled() {
+    return Boolean.getBoolean(ENABLED_PROPERTY);
+  }
+
+  /** Wall-clock time in nanoseconds, with the resolution of {@link System#nanoTime()}. */
+  public static long currentTimeNanos() {
+    return CLOCK_BASE_NANOS + (System.nanoTime() - CLOCK_BASE_NANO_TIME);
+  }
+
+  /** Adds the nanosecond creation time to the message if latency is enabled. */
+  public static MessageBuilder stamp(MessageBuilder builder) {
+    if (enabled()) {
+      builder.applicationProperties().entry(CREATION_TIME_NANOS, currentTimeNanos());
+    }
+    return builder;
+  }
+
+  static long creationTimeNanos(Message message) {
+    if (message.getApplicationProperties() != null) {
+      Object nanos = message.getApplicationProperties().get(CREATION_TIME_NANOS);
+      if (nanos instanceof Long) {
+        return (Long) nanos;
+      }
+    }
+    if (message.getProperties() != null && message.getProperties().getCreationTime() > 0) {
+      return TimeUnit.MILLISECONDS.toNanos(message.getProperties().getCreationTime());
+    }
+    return -1;
+  }
+
+  public void record(Message message) {
+    if (recorder != null) {
+      long creationTime = creationTimeNanos(message);
+      if (creationTime > 0) {
+        // clocks of different processes can drift a bit
+        recorder.recordValue(Math.max(0, currentTimeNanos() - creationTime));
+      }
+    }
+  }
+
+  public void record(long latencyInNanos) {
+    if (recorder != null) {
+      recorder.recordValue(Math.max(0, latencyInNanos));
+    }
+  }
+
+  private synchronized void report() {
+    interval = recorder.getIntervalHistogram(interval);
+    total.add(interval);
+    if (logWriter != null && interval.getTotalCount() > 0) {
+      logWriter.outputIntervalHistogram(interval);
+      logStream.flush();
+    }
+    log("%s latency %s", name, summary(interval));
+  }
+
+  static String summary(Histogram histogram) {
+    return String.format(
+        "count %,d, p50 %s, p99 %s, p99.9 %s, max %s",
+        histogram.getTotalCount(),
+        format(histogram.getValueAtPercentile(50)),
+        format(histogram.getValueAtPercentile(99)),
+        format(histogram.getValueAtPercentile(99.9)),
+        format(histogram.getMaxValue()));
+  }
+
+  private static String format(long nanos) {
+    if (nanos < 10_000) {
+      return nanos + " ns";
+    } else if (nanos < 10_000_000) {
+      return String.format("%.1f us", nanos / 1_000.0);
+    } else {
+      return String.format("%.1f ms", nanos / 1_000_000.0);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (recorder != null) {
+      scheduler.shutdownNow();
+      synchronized (this) {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        if (logWriter != null) {
+          if (interval.getTotalCount() > 0) {
+            logWriter.outputIntervalHistogram(interval);
+          }
+          logStream.close();
+        }
+        log("%s latency (total) %s", name, summary(total));
+      }
+    }
+  }
+}
@@ -0,0 +1,1198 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.stream.amqp.UnsignedByte;
+import com.rabbitmq.stream.amqp.UnsignedInteger;
+import com.rabbitmq.stream.amqp.UnsignedLong;
+import com.rabbitmq.stream.amqp.UnsignedShort;
+import com.rabbitmq.stream.codec.QpidProtonCodec;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.qpid.proton.amqp.Binary;
+
+/**
+ * Compact binary codec for internal streams.
+ *
+ * <p>It encodes all the AMQP 1.0 properties, application properties, message annotations and a
+ * single data section, the body. Values in the maps can be booleans, signed and unsigned integers,
+ * floating-point numbers, decimals, characters, UUIDs, strings, binaries and nulls. Timestamps are
+ * decoded as epoch milliseconds, symbols as strings and decimals as {@link BigDecimal}. Strings and
+ * binaries in the properties and map keys are limited to 65,535 bytes, maps to 65,535 entries.
+ * Header, delivery annotations, footer, AMQP value and sequence bodies are not supported, adding a
+ * second data section throws {@link IllegalStateException}.
+ *
+ * <p>Messages start with a byte that AMQP 1.0 messages cannot start with, so messages in AMQP 1.0
+ * (e.g. coming from AMQP 0.9.1 publishers) are decoded with Qpid Proton and the codec can read
+ * streams that mix both formats. Applications that read the stream must all use this codec.
+ */
+public class LightCodec implements Codec {
+
+  static final byte MAGIC = (byte) 0xF1;
+
+  private static final int MESSAGE_ID = 1;
+  private static final int USER_ID = 1 << 1;
+  private static final int TO = 1 << 2;
+  private static final int SUBJECT = 1 << 3;
+  private static final int REPLY_TO = 1 << 4;
+  private static final int CORRELATION_ID = 1 << 5;
+  private static final int CONTENT_TYPE = 1 << 6;
+  private static final int CONTENT_ENCODING = 1 << 7;
+  private static final int ABSOLUTE_EXPIRY_TIME = 1 << 8;
+  private static final int CREATION_TIME = 1 << 9;
+  private static final int GROUP_ID = 1 << 10;
+  private static final int GROUP_SEQUENCE = 1 << 11;
+  private static final int REPLY_TO_GROUP_ID = 1 << 12;
+  private static final int APPLICATION_PROPERTIES = 1 << 13;
+  private static final int MESSAGE_ANNOTATIONS = 1 << 14;
+  private static final int BODY = 1 << 15;
+
+  private static final byte NULL = 0, BOOLEAN = 1, BYTE = 2, SHORT = 3, INT = 4, LONG = 5;
+  private static final byte FLOAT = 6, DOUBLE = 7, STRING = 8, BINARY = 9, UUID_VALUE = 10;
+  private static final byte CHAR = 11, UBYTE = 12, USHORT = 13, UINT = 14, ULONG = 15;
+  private static final byte DECIMAL = 16;
+
+  private final Codec amqpCodec = new QpidProtonCodec();
+
+  @Override
+  public EncodedMessage encode(Message message) {
+    if (!(message instanceof LightMessage)) {
+      throw new IllegalArgumentException("Messages must be created with the codec's builder");
+    }
+    LightMessage m = (LightMessage) message;
+    LightProperties p = m.properties;
+    int size = 3;
+    int flags = 0;
+    if (p.messageId != null) {
+      flags |= MESSAGE_ID;
+      size += p.messageId.size();
+    }
+    if (p.userId != null) {
+      flags |= USER_ID;
+      size += 2 + p.userId.length;
+    }
+    if (p.to != null) {
+      flags |= TO;
+      size += 2 + p.to.length;
+    }
+    if (p.subject != null) {
+      flags |= SUBJECT;
+      size += 2 + p.subject.length;
+    }
+    if (p.replyTo != null) {
+      flags |= REPLY_TO;
+      size += 2 + p.replyTo.length;
+    }
+    if (p.correlationId != null) {
+      flags |= CORRELATION_ID;
+      size += p.correlationId.size();
+    }
+    if (p.contentType != null) {
+      flags |= CONTENT_TYPE;
+      size += 2 + p.contentType.length;
+    }
+    if (p.contentEncoding != null) {
+      flags |= CONTENT_ENCODING;
+      size += 2 + p.contentEncoding.length;
+    }
+    if (p.hasAbsoluteExpiryTime) {
+      flags |= ABSOLUTE_EXPIRY_TIME;
+      size += 8;
+    }
+    if (p.hasCreationTime) {
+      flags |= CREATION_TIME;
+      size += 8;
+    }
+    if (p.groupId != null) {
+      flags |= GROUP_ID;
+      size += 2 + p.groupId.length;
+    }
+    if (p.hasGroupSequence) {
+      flags |= GROUP_SEQUENCE;
+      size += 8;
+    }
+    if (p.replyToGroupId != null) {
+      flags |= REPLY_TO_GROUP_ID;
+      size += 2 + p.replyToGroupId.length;
+    }
+    if (m.applicationProperties != null) {
+      flags |= APPLICATION_PROPERTIES;
+      size += mapSize(m.applicationProperties);
+    }
+    if (m.messageAnnotations != null) {
+      flags |= MESSAGE_ANNOTATIONS;
+      size += mapSize(m.messageAnnotations);
+    }
+    if (m.body != null) {
+      flags |= BODY;
+      size += 4 + m.body.getLength();
+    }
+
+    Writer writer = new Writer(new byte[size]);
+    writer.writeByte(MAGIC);
+    writer.writeShort(flags);
+    if ((flags & MESSAGE_ID) != 0) {
+      writer.writeId(p.messageId);
+    }
+    if ((flags & USER_ID) != 0) {
+      writer.writeBytes16(p.userId);
+    }
+    if ((flags & TO) != 0) {
+      writer.writeBytes16(p.to);
+    }
+    if ((flags & SUBJECT) != 0) {
+      writer.writeBytes16(p.subject);
+    }
+    if ((flags & REPLY_TO) != 0) {
+      writer.writeBytes16(p.replyTo);
+    }
+    if ((flags & CORRELATION_ID) != 0) {
+      writer.writeId(p.correlationId);
+    }
+    if ((flags & CONTENT_TYPE) != 0) {
+      writer.writeBytes16(p.contentType);
+    }
+    if ((flags & CONTENT_ENCODING) != 0) {
+      writer.writeBytes16(p.contentEncoding);
+    }
+    if ((flags & ABSOLUTE_EXPIRY_TIME) != 0) {
+      writer.writeLong(p.absoluteExpiryTime);
+    }
+    if ((flags & CREATION_TIME) != 0) {
+      writer.writeLong(p.creationTime);
+    }
+    if ((flags & GROUP_ID) != 0) {
+      writer.writeBytes16(p.groupId);
+    }
+    if ((flags & GROUP_SEQUENCE) != 0) {
+      writer.writeLong(p.groupSequence);
+    }
+    if ((flags & REPLY_TO_GROUP_ID) != 0) {
+      writer.writeBytes16(p.replyToGroupId);
+    }
+    if ((flags & APPLICATION_PROPERTIES) != 0) {
+      writer.writeMap(m.applicationProperties);
+    }
+    if ((flags & MESSAGE_ANNOTATIONS) != 0) {
+      writer.writeMap(m.messageAnnotations);
+    }
+    if ((flags & BODY) != 0) {
+      writer.writeInt(m.body.getLength());
+      System.arraycopy(
+          m.body.getArray(),
+          m.body.getArrayOffset(),
+          writer.array,
+          writer.index,
+          m.body.getLength());
+    }
+    return new EncodedMessage(size, writer.array);
+  }
+
+  @Override
+  public Message decode(byte[] data) {
+    if (data.length == 0 || data[0] != MAGIC) {
+      return amqpCodec.decode(data);
+    }
+    Reader reader = new Reader(data);
+    reader.index = 1;
+    int flags = reader.readShort();
+    LightProperties p = new LightProperties();
+    if ((flags & MESSAGE_ID) != 0) {
+      p.messageId = reader.readId();
+    }
+    if ((flags & USER_ID) != 0) {
+      p.userId = reader.readBytes16();
+    }
+    if ((flags & TO) != 0) {
+      p.to = reader.readBytes16();
+    }
+    if ((flags & SUBJECT) != 0) {
+      p.subject = reader.readBytes16();
+    }
+    if ((flags & REPLY_TO) != 0) {
+      p.replyTo = reader.readBytes16();
+    }
+    if ((flags & CORRELATION_ID) != 0) {
+      p.correlationId = reader.readId();
+    }
+    if ((flags & CONTENT_TYPE) != 0) {
+      p.contentType = reader.readBytes16();
+    }
+    if ((flags & CONTENT_ENCODING) != 0) {
+      p.contentEncoding = reader.readBytes16();
+    }
+    if ((flags & ABSOLUTE_EXPIRY_TIME) != 0) {
+      p.absoluteExpiryTime = reader.readLong();
+      p.hasAbsoluteExpiryTime = true;
+    }
+    if ((flags & CREATION_TIME) != 0) {
+      p.creationTime = reader.readLong();
+      p.hasCreationTime = true;
+    }
+    if ((flags & GROUP_ID) != 0) {
+      p.groupId = reader.readBytes16();
+    }
+    if ((flags & GROUP_SEQUENCE) != 0) {
+      p.groupSequence = reader.readLong();
+      p.hasGroupSequence = true;
+    }
+    if ((flags & REPLY_TO_GROUP_ID) != 0) {
+      p.replyToGroupId = reader.readBytes16();
+    }
+    Map<String, Object> applicationProperties =
+        (flags & APPLICATION_PROPERTIES) != 0 ? reader.readMap() : null;
+    Map<String, Object> messageAnnotations =
+        (flags & MESSAGE_ANNOTATIONS) != 0 ? reader.readMap() : null;
+    Binary body = null;
+    if ((flags & BODY) != 0) {
+      int length = reader.readInt();
+      // no copy, the client gives each message its own array
+      body = new Binary(data, reader.index, length);
+    }
+    return new LightMessage(false, 0, p, applicationProperties, messageAnnotations, body);
+  }
+
+  @Override
+  public MessageBuilder messageBuilder() {
+    return new LightMessageBuilder();
+  }
+
+  private static int mapSize(Map<String, Object> map) {
+    int size = 2;
+    for (Map.Entry<String, Object> entry : map.entrySet()) {
+      size += 2 + utf8(entry.getKey()).length + valueSize(entry.getValue());
+    }
+    return size;
+  }
+
+  // type included
+  private static int valueSize(Object value) {
+    if (value == null) {
+      return 1;
+    } else if (value instanceof Boolean || value instanceof Byte || value instanceof UnsignedByte) {
+      return 1 + 1;
+    } else if (value instanceof Short
+        || value instanceof Character
+        || value instanceof UnsignedShort) {
+      return 1 + 2;
+    } else if (value instanceof Integer
+        || value instanceof Float
+        || value instanceof UnsignedInteger) {
+      return 1 + 4;
+    } else if (value instanceof Long || value instanceof Double || value instanceof UnsignedLong) {
+      return 1 + 8;
+    } else if (value instanceof UUID) {
+      return 1 + 16;
+    } else if (value instanceof String) {
+      return 1 + 4 + utf8((String) value).length;
+    } else if (value instanceof byte[]) {
+      return 1 + 4 + ((byte[]) value).length;
+    } else if (value instanceof BigDecimal) {
+      return 1 + 4 + 4 + ((BigDecimal) value).unscaledValue().toByteArray().length;
+    } else {
+      throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+    }
+  }
+
+  private static byte[] utf8(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String string(byte[] value) {
+    return value == null ? null : new String(value, StandardCharsets.UTF_8);
+  }
+
+  private static int length16(int length) {
+    if (length > 0xFFFF) {
+      throw new IllegalArgumentException(
+          "Length " + length + " is over the codec's limit of " + 0xFFFF);
+    }
+    return length;
+  }
+
+  /** A message or correlation ID: unsigned long, string (kept in UTF-8), binary or UUID. */
+  private static final class Id {
+
+    private final byte type;
+    private final Object value;
+
+    private Id(byte type, Object value) {
+      this.type = type;
+      this.value = value;
+    }
+
+    Object get() {
+      return type == STRING ? string((byte[]) value) : value;
+    }
+
+    // type included
+    int size() {
+      switch (type) {
+        case LONG:
+          return 1 + 8;
+        case UUID_VALUE:
+          return 1 + 16;
+        default:
+          return 1 + 4 + ((byte[]) value).length;
+      }
+    }
+  }
+
+  private static <T> T id(Id id, Class<T> type) {
+    return id == null ? null : type.cast(id.get());
+  }
+
+  private static class Writer {
+
+    private final byte[] array;
+    private int index = 0;
+
+    private Writer(byte[] array) {
+      this.array = array;
+    }
+
+    void writeByte(byte value) {
+      array[index++] = value;
+    }
+
+    void writeShort(int value) {
+      array[index++] = (byte) (value >>> 8);
+      array[index++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+      writeShort(value >>> 16);
+      writeShort(value);
+    }
+
+    void writeLong(long value) {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    void writeBytes16(byte[] value) {
+      writeShort(length16(value.length));
+      System.arraycopy(value, 0, array, index, value.length);
+      index += value.length;
+    }
+
+    void writeBytes32(byte[] value) {
+      writeInt(value.length);
+      System.arraycopy(value, 0, array, index, value.length);
+      index += value.length;
+    }
+
+    void writeId(Id id) {
+      writeByte(id.type);
+      if (id.type == LONG) {
+        writeLong((Long) id.value);
+      } else if (id.type == UUID_VALUE) {
+        writeUuid((UUID) id.value);
+      } else {
+        writeBytes32((byte[]) id.value);
+      }
+    }
+
+    void writeUuid(UUID value) {
+      writeLong(value.getMostSignificantBits());
+      writeLong(value.getLeastSignificantBits());
+    }
+
+    void writeMap(Map<String, Object> map) {
+      writeShort(length16(map.size()));
+      for (Map.Entry<String, Object> entry : map.entrySet()) {
+        writeBytes16(utf8(entry.getKey()));
+        writeValue(entry.getValue());
+      }
+    }
+
+    void writeValue(Object value) {
+      if (value == null) {
+        writeByte(NULL);
+      } else if (value instanceof Boolean) {
+        writeByte(BOOLEAN);
+        writeByte((byte) ((Boolean) value ? 1 : 0));
+      } else if (value instanceof Byte) {
+        writeByte(BYTE);
+        writeByte((Byte) value);
+      } else if (value instanceof Short) {
+        writeByte(SHORT);
+        writeShort((Short) value);
+      } else if (value instanceof Integer) {
+        writeByte(INT);
+        writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        writeByte(LONG);
+        writeLong((Long) value);
+      } else if (value instanceof Float) {
+        writeByte(FLOAT);
+        writeInt(Float.floatToIntBits((Float) value));
+      } else if (value instanceof Double) {
+        writeByte(DOUBLE);
+        writeLong(Double.doubleToLongBits((Double) value));
+      } else if (value instanceof String) {
+        writeByte(STRING);
+        writeBytes32(utf8((String) value));
+      } else if (value instanceof byte[]) {
+        writeByte(BINARY);
+        writeBytes32((byte[]) value);
+      } else if (value instanceof UUID) {
+        writeByte(UUID_VALUE);
+        writeUuid((UUID) value);
+      } else if (value instanceof Character) {
+        writeByte(CHAR);
+        writeShort((Character) value);
+      } else if (value instanceof UnsignedByte) {
+        writeByte(UBYTE);
+        writeByte(((UnsignedByte) value).byteValue());
+      } else if (value instanceof UnsignedShort) {
+        writeByte(USHORT);
+        writeShort(((UnsignedShort) value).shortValue());
+      } else if (value instanceof UnsignedInteger) {
+        writeByte(UINT);
+        writeInt(((UnsignedInteger) value).intValue());
+      } else if (value instanceof UnsignedLong) {
+        writeByte(ULONG);
+        writeLong(((UnsignedLong) value).longValue());
+      } else {
+        BigDecimal decimal = (BigDecimal) value;
+        writeByte(DECIMAL);
+        writeInt(decimal.scale());
+        writeBytes32(decimal.unscaledValue().toByteArray());
+      }
+    }
+  }
+
+  private static class Reader {
+
+    private final byte[] array;
+    private int index = 0;
+
+    private Reader(byte[] array) {
+      this.array = array;
+    }
+
+    byte readByte() {
+      return array[index++];
+    }
+
+    int readShort() {
+      return ((array[index++] & 0xff) << 8) | (array[index++] & 0xff);
+    }
+
+    int readInt() {
+      return (readShort() << 16) | readShort();
+    }
+
+    long readLong() {
+      return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    byte[] readBytes16() {
+      int length = readShort();
+      byte[] value = Arrays.copyOfRange(array, index, index + length);
+      index += length;
+      return value;
+    }
+
+    byte[] readBytes32() {
+      int length = readInt();
+      byte[] value = Arrays.copyOfRange(array, index, index + length);
+      index += length;
+      return value;
+    }
+
+    Id readId() {
+      byte type = readByte();
+      switch (type) {
+        case LONG:
+          return new Id(type, readLong());
+        case UUID_VALUE:
+          return new Id(type, readUuid());
+        case STRING:
+        case BINARY:
+          return new Id(type, readBytes32());
+        default:
+          throw new IllegalArgumentException("Unknown ID type: " + type);
+      }
+    }
+
+    UUID readUuid() {
+      return new UUID(readLong(), readLong());
+    }
+
+    Map<String, Object> readMap() {
+      int size = readShort();
+      Map<String, Object> map = new LinkedHashMap<>(size * 2);
+      for (int i = 0; i < size; i++) {
+        String key = string(readBytes16());
+        map.put(key, readValue());
+      }
+      return map;
+    }
+
+    Object readValue() {
+      byte type = readByte();
+      switch (type) {
+        case NULL:
+          return null;
+        case BOOLEAN:
+          return readByte() != 0;
+        case BYTE:
+          return readByte();
+        case SHORT:
+          return (short) readShort();
+        case INT:
+          return readInt();
+        case LONG:
+          return readLong();
+        case FLOAT:
+          return Float.intBitsToFloat(readInt());
+        case DOUBLE:
+          return Double.longBitsToDouble(readLong());
+        case STRING:
+          return string(readBytes32());
+        case BINARY:
+          return readBytes32();
+        case UUID_VALUE:
+          return readUuid();
+        case CHAR:
+          return (char) readShort();
+        case UBYTE:
+          return UnsignedByte.valueOf(readByte());
+        case USHORT:
+          return UnsignedShort.valueOf((short) readShort());
+        case UINT:
+          return UnsignedInteger.valueOf(readInt());
+        case ULONG:
+          return UnsignedLong.valueOf(readLong());
+        case DECIMAL:
+          int scale = readInt();
+          return new BigDecimal(new BigInteger(readBytes32()), scale);
+        default:
+          throw new IllegalArgumentException("Unknown value type: " + type);
+      }
+    }
+  }
+
+  static class LightMessage implements Message {
+
+    private final boolean hasPublishingId;
+    private final long publishingId;
+    private final LightProperties properties;
+    private final Map<String, Object> applicationProperties;
+    private final Map<String, Object> messageAnnotations;
+    private final Binary body;
+
+    private LightMessage(
+        boolean hasPublishingId,
+        long publishingId,
+        LightProperties properties,
+        Map<String, Object> applicationProperties,
+        Map<String, Object> messageAnnotations,
+        Binary body) {
+      this.hasPublishingId = hasPublishingId;
+      this.publishingId = publishingId;
+      this.properties = properties;
+      this.applicationProperties = applicationProperties;
+      this.messageAnnotations = messageAnnotations;
+      this.body = body;
+    }
+
+    @Override
+    public boolean hasPublishingId() {
+      return hasPublishingId;
+    }
+
+    @Override
+    public long getPublishingId() {
+      return publishingId;
+    }
+
+    @Override
+    public byte[] getBodyAsBinary() {
+      if (body == null) {
+        return null;
+      } else if (body.getArrayOffset() == 0 && body.getLength() == body.getArray().length) {
+        return body.getArray();
+      } else {
+        return Arrays.copyOfRange(
+            body.getArray(), body.getArrayOffset(), body.getArrayOffset() + body.getLength());
+      }
+    }
+
+    /** The body as a Qpid Proton {@link Binary}, to read it without copy. */
+    @Override
+    public Object getBody() {
+      return body;
+    }
+
+    @Override
+    public Properties getProperties() {
+      return properties;
+    }
+
+    @Override
+    public Map<String, Object> getApplicationProperties() {
+      return applicationProperties;
+    }
+
+    @Override
+    public Map<String, Object> getMessageAnnotations() {
+      return messageAnnotations;
+    }
+  }
+
+  private static class LightProperties implements Properties {
+
+    private Id messageId, correlationId;
+    private byte[] userId, to, subject, replyTo, contentType, contentEncoding;
+    private byte[] groupId, replyToGroupId;
+    private boolean hasAbsoluteExpiryTime, hasCreationTime, hasGroupSequence;
+    private long absoluteExpiryTime, creationTime, groupSequence;
+
+    @Override
+    public Object getMessageId() {
+      return messageId == null ? null : messageId.get();
+    }
+
+    @Override
+    public String getMessageIdAsString() {
+      return id(messageId, String.class);
+    }
+
+    @Override
+    public long getMessageIdAsLong() {
+      Long value = id(messageId, Long.class);
+      return value == null ? 0 : value;
+    }
+
+    @Override
+    public byte[] getMessageIdAsBinary() {
+      return id(messageId, byte[].class);
+    }
+
+    @Override
+    public UUID getMessageIdAsUuid() {
+      return id(messageId, UUID.class);
+    }
+
+    @Override
+    public byte[] getUserId() {
+      return userId;
+    }
+
+    @Override
+    public String getTo() {
+      return string(to);
+    }
+
+    @Override
+    public String getSubject() {
+      return string(subject);
+    }
+
+    @Override
+    public String getReplyTo() {
+      return string(replyTo);
+    }
+
+    @Override
+    public Object getCorrelationId() {
+      return correlationId == null ? null : correlationId.get();
+    }
+
+    @Override
+    public String getCorrelationIdAsString() {
+      return id(correlationId, String.class);
+    }
+
+    @Override
+    public long getCorrelationIdAsLong() {
+      Long value = id(correlationId, Long.class);
+      return value == null ? 0 : value;
+    }
+
+    @Override
+    public byte[] getCorrelationIdAsBinary() {
+      return id(correlationId, byte[].class);
+    }
+
+    @Override
+    public UUID getCorrelationIdAsUuid() {
+      return id(correlationId, UUID.class);
+    }
+
+    @Override
+    public String getContentType() {
+      return string(contentType);
+    }
+
+    @Override
+    public String getContentEncoding() {
+      return string(contentEncoding);
+    }
+
+    @Override
+    public long getAbsoluteExpiryTime() {
+      return absoluteExpiryTime;
+    }
+
+    @Override
+    public long getCreationTime() {
+      return creationTime;
+    }
+
+    @Override
+    public String getGroupId() {
+      return string(groupId);
+    }
+
+    @Override
+    public long getGroupSequence() {
+      return groupSequence;
+    }
+
+    @Override
+    public String getReplyToGroupId() {
+      return string(replyToGroupId);
+    }
+  }
+
+  private static class LightMessageBuilder implements MessageBuilder {
+
+    private final LightProperties properties = new LightProperties();
+    private boolean hasPublishingId = false;
+    private long publishingId = 0;
+    private Entries<LightApplicationPropertiesBuilder> applicationProperties;
+    private Entries<LightMessageAnnotationsBuilder> messageAnnotations;
+    private Binary body;
+    private boolean built = false;
+
+    @Override
+    public Message build() {
+      if (built) {
+        throw new IllegalStateException("A message builder can build only one message");
+      }
+      built = true;
+      return new LightMessage(
+          hasPublishingId,
+          publishingId,
+          properties,
+          applicationProperties == null ? null : applicationProperties.entries,
+          messageAnnotations == null ? null : messageAnnotations.entries,
+          body);
+    }
+
+    @Override
+    public MessageBuilder publishingId(long publishingId) {
+      this.hasPublishingId = true;
+      this.publishingId = publishingId;
+      return this;
+    }
+
+    @Override
+    public PropertiesBuilder properties() {
+      return new LightPropertiesBuilder(this);
+    }
+
+    @Override
+    public ApplicationPropertiesBuilder applicationProperties() {
+      if (applicationProperties == null) {
+        applicationProperties = new LightApplicationPropertiesBuilder(this);
+      }
+      return (ApplicationPropertiesBuilder) applicationProperties;
+    }
+
+    @Override
+    public MessageAnnotationsBuilder messageAnnotations() {
+      if (messageAnnotations == null) {
+        messageAnnotations = new LightMessageAnnotationsBuilder(this);
+      }
+      return (MessageAnnotationsBuilder) messageAnnotations;
+    }
+
+    @Override
+    public MessageBuilder addData(byte[] data) {
+      if (body != null) {
+        throw new IllegalStateException("Only one data section is supported");
+      }
+      this.body = new Binary(data);
+      return this;
+    }
+  }
+
+  private static class LightPropertiesBuilder implements MessageBuilder.PropertiesBuilder {
+
+    private final LightMessageBuilder messageBuilder;
+    private final LightProperties properties;
+
+    private LightPropertiesBuilder(LightMessageBuilder messageBuilder) {
+      this.messageBuilder = messageBuilder;
+      this.properties = messageBuilder.properties;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder messageId(String id) {
+      properties.messageId = new Id(STRING, utf8(id));
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder messageId(long id) {
+      properties.messageId = new Id(LONG, id);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder messageId(byte[] id) {
+      properties.messageId = new Id(BINARY, id);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder messageId(UUID id) {
+      properties.messageId = new Id(UUID_VALUE, id);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder userId(byte[] userId) {
+      properties.userId = userId;
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder to(String address) {
+      properties.to = utf8(address);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder subject(String subject) {
+      properties.subject = utf8(subject);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder replyTo(String replyTo) {
+      properties.replyTo = utf8(replyTo);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder correlationId(String correlationId) {
+      properties.correlationId = new Id(STRING, utf8(correlationId));
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder correlationId(long correlationId) {
+      properties.correlationId = new Id(LONG, correlationId);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder correlationId(byte[] correlationId) {
+      properties.correlationId = new Id(BINARY, correlationId);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder correlationId(UUID correlationId) {
+      properties.correlationId = new Id(UUID_VALUE, correlationId);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder contentType(String contentType) {
+      properties.contentType = utf8(contentType);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder contentEncoding(String contentEncoding) {
+      properties.contentEncoding = utf8(contentEncoding);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder absoluteExpiryTime(long absoluteExpiryTime) {
+      properties.absoluteExpiryTime = absoluteExpiryTime;
+      properties.hasAbsoluteExpiryTime = true;
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder creationTime(long creationTime) {
+      properties.creationTime = creationTime;
+      properties.hasCreationTime = true;
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder groupId(String groupId) {
+      properties.groupId = utf8(groupId);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder groupSequence(long groupSequence) {
+      properties.groupSequence = groupSequence;
+      properties.hasGroupSequence = true;
+      return this;
+    }
+
+    @Override
+    public MessageBuilder.PropertiesBuilder replyToGroupId(String replyToGroupId) {
+      properties.replyToGroupId = utf8(replyToGroupId);
+      return this;
+    }
+
+    @Override
+    public MessageBuilder messageBuilder() {
+      return messageBuilder;
+    }
+  }
+
+  private abstract static class Entries<T> {
+
+    private final LightMessageBuilder messageBuilder;
+    private final Map<String, Object> entries = new LinkedHashMap<>();
+
+    private Entries(LightMessageBuilder messageBuilder) {
+      this.messageBuilder = messageBuilder;
+    }
+
+    @SuppressWarnings("unchecked")
+    T put(String key, Object value) {
+      entries.put(key, value);
+      return (T) this;
+    }
+
+    public MessageBuilder messageBuilder() {
+      return messageBuilder;
+    }
+  }
+
+  private static class LightApplicationPropertiesBuilder
+      extends Entries<LightApplicationPropertiesBuilder>
+      implements MessageBuilder.ApplicationPropertiesBuilder {
+
+    private LightApplicationPropertiesBuilder(LightMessageBuilder messageBuilder) {
+      super(messageBuilder);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, boolean value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, byte value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, short value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, int value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, long value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entryUnsigned(String key, byte value) {
+      return put(key, UnsignedByte.valueOf(value));
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entryUnsigned(String key, short value) {
+      return put(key, UnsignedShort.valueOf(value));
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entryUnsigned(String key, int value) {
+      return put(key, UnsignedInteger.valueOf(value));
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entryUnsigned(String key, long value) {
+      return put(key, UnsignedLong.valueOf(value));
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, float value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, double value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entryDecimal32(String key, BigDecimal value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entryDecimal64(String key, BigDecimal value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entryDecimal128(String key, BigDecimal value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, char value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entryTimestamp(String key, long value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, UUID value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, byte[] value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entry(String key, String value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightApplicationPropertiesBuilder entrySymbol(String key, String value) {
+      return put(key, value);
+    }
+  }
+
+  private static class LightMessageAnnotationsBuilder
+      extends Entries<LightMessageAnnotationsBuilder>
+      implements MessageBuilder.MessageAnnotationsBuilder {
+
+    private LightMessageAnnotationsBuilder(LightMessageBuilder messageBuilder) {
+      super(messageBuilder);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, boolean value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, byte value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, short value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, int value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, long value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entryUnsigned(String key, byte value) {
+      return put(key, UnsignedByte.valueOf(value));
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entryUnsigned(String key, short value) {
+      return put(key, UnsignedShort.valueOf(value));
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entryUnsigned(String key, int value) {
+      return put(key, UnsignedInteger.valueOf(value));
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entryUnsigned(String key, long value) {
+      return put(key, UnsignedLong.valueOf(value));
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, float value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, double value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entryDecimal32(String key, BigDecimal value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entryDecimal64(String key, BigDecimal value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entryDecimal128(String key, BigDecimal value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, char value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entryTimestamp(String key, long value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, UUID value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, byte[] value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entry(String key, String value) {
+      return put(key, value);
+    }
+
+    @Override
+    public LightMessageAnnotationsBuilder entrySymbol(String key, String value) {
+      return put(key, value);
+    }
+  }
+}
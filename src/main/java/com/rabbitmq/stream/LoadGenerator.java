@@ -0,0 +1,536 @@
+package com.rabbitmq.stream;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Configurable load: producers and consumers spread over streams, periodic throughput and latency
+ * lines, and CSV results.
+ *
+ * <p>Message bodies start with their sending time, so consumers compute the publish-to-consume
+ * latency without extra properties. See {@link Settings} for the options.
+ *
+ * <p>With a target rate, publishing is open-loop: each message has an intended send time from the
+ * {@link RateProfile} and latencies are measured from it, not from the actual send time. A producer
+ * that falls behind the schedule sends late messages as fast as it can, their latencies include the
+ * time they waited, instead of being hidden by a slower publishing rate (coordinated omission).
+ * Reports include how far publishing is behind the schedule.
+ */
+public class LoadGenerator {
+
+  static final String CONFIRM_ASYNC = "async";
+  static final String CONFIRM_SYNC = "sync";
+  static final String CONFIRM_NONE = "none";
+
+  private final Settings settings;
+  private final LongAdder published = new LongAdder();
+  private final LongAdder confirmed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder consumed = new LongAdder();
+  private final Recorder confirmLatency = new Recorder(3);
+  private final Recorder latency = new Recorder(3);
+  private final Histogram totalConfirmLatency = new Histogram(3);
+  private final Histogram totalLatency = new Histogram(3);
+  private Histogram intervalConfirmLatency;
+  private Histogram intervalLatency;
+  private long start;
+  private long lastReport;
+  private long lastPublished;
+  private long lastConfirmed;
+  private long lastConsumed;
+  private long maxScheduleLag;
+  private double lastExpected;
+  private AtomicLongArray nextSendTimes;
+
+  public LoadGenerator(Settings settings) {
+    this.settings = settings;
+  }
+
+  static void log(String format, Object... arguments) {
+    System.out.println(String.format(format, arguments));
+  }
+
+  /** Runs the load and returns once all producers are done and consumers caught up. */
+  public Result run(Environment environment) throws InterruptedException {
+    List<String> streams = new ArrayList<>();
+    for (int i = 0; i < settings.streams; i++) {
+      String stream = settings.streams == 1 ? settings.stream : settings.stream + "-" + i;
+      environment.streamCreator().stream(stream).create();
+      streams.add(stream);
+    }
+    LongAdder[] publishedByStream = new LongAdder[streams.size()];
+    for (int i = 0; i < publishedByStream.length; i++) {
+      publishedByStream[i] = new LongAdder();
+    }
+
+    List<Consumer> consumers = new ArrayList<>();
+    LongAdder[] consumedByConsumer = new LongAdder[settings.consumers];
+    for (int i = 0; i < settings.consumers; i++) {
+      LongAdder count = new LongAdder();
+      consumedByConsumer[i] = count;
+      consumers.add(
+          environment.consumerBuilder().stream(streams.get(i % streams.size()))
+              .offset(OffsetSpecification.next())
+              .messageHandler(
+                  (context, message) -> {
+                    long sent = sendingTime(message);
+                    if (sent > 0) {
+                      latency.recordValue(Math.max(0, LatencyRecorder.currentTimeNanos() - sent));
+                    }
+                    count.increment();
+                    consumed.increment();
+                  })
+              .build());
+    }
+
+    PrintStream csv = csv();
+    ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "load-generator-report");
+              thread.setDaemon(true);
+              return thread;
+            });
+    start = System.nanoTime();
+    lastReport = start;
+    scheduler.scheduleAtFixedRate(
+        () -> report(csv), settings.reportInterval, settings.reportInterval, TimeUnit.SECONDS);
+
+    nextSendTimes = new AtomicLongArray(settings.producers);
+    List<Producer> producers = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < settings.producers; i++) {
+      int streamIndex = i % streams.size();
+      Producer producer =
+          environment.producerBuilder().stream(streams.get(streamIndex))
+              .batchSize(settings.batchSize)
+              .build();
+      producers.add(producer);
+      long quota = settings.messages / settings.producers;
+      if (i < settings.messages % settings.producers) {
+        quota++;
+      }
+      long messageCount = quota;
+      int producerIndex = i;
+      Thread thread =
+          new Thread(
+              () -> {
+                try {
+                  publish(producer, producerIndex, messageCount, publishedByStream[streamIndex]);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+              },
+              "load-generator-producer-" + i);
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long publishingDuration = System.nanoTime() - start;
+
+    boolean confirmedAll = true;
+    if (!CONFIRM_NONE.equals(settings.confirm)) {
+      try {
+        Utils.waitAtMost(60, () -> confirmed.sum() + failed.sum() >= published.sum());
+      } catch (IllegalStateException e) {
+        confirmedAll = false;
+      }
+    }
+    boolean consumedAll = true;
+    try {
+      Utils.waitAtMost(
+          60,
+          () -> {
+            for (int i = 0; i < consumedByConsumer.length; i++) {
+              if (consumedByConsumer[i].sum() < publishedByStream[i % streams.size()].sum()) {
+                return false;
+              }
+            }
+            return true;
+          });
+    } catch (IllegalStateException e) {
+      consumedAll = false;
+    }
+    long duration = System.nanoTime() - start;
+    scheduler.shutdownNow();
+    scheduler.awaitTermination(5, TimeUnit.SECONDS);
+    report(csv);
+    if (csv != null) {
+      csv.close();
+    }
+    producers.forEach(Producer::close);
+    consumers.forEach(Consumer::close);
+    return new Result(
+        published.sum(),
+        confirmed.sum(),
+        failed.sum(),
+        consumed.sum(),
+        publishingDuration,
+        duration,
+        confirmedAll && consumedAll,
+        settings.rateProfile != null,
+        maxScheduleLag,
+        totalConfirmLatency,
+        totalLatency);
+  }
+
+  private void publish(
+      Producer producer, int producerIndex, long messageCount, LongAdder publishedToStream)
+      throws InterruptedException {
+    long deadline =
+        settings.duration > 0
+            ? start + TimeUnit.SECONDS.toNanos(settings.duration)
+            : Long.MAX_VALUE;
+    RateProfile profile = settings.rateProfile;
+    long intended = start;
+    boolean sync = CONFIRM_SYNC.equals(settings.confirm);
+    boolean track = !CONFIRM_NONE.equals(settings.confirm);
+    ConfirmationHandler noOp = confirmationStatus -> {};
+    CountDownLatch batchLatch = null;
+    // index after the last message of the current batch
+    long batchEnd = 0;
+    for (long i = 0; i < messageCount; i++) {
+      long now = System.nanoTime();
+      if (profile == null) {
+        intended = now;
+      } else {
+        // producers share the schedule, each takes every n-th message of it
+        intended =
+            start + profile.sendTime(i * settings.producers + producerIndex, intended - start);
+        nextSendTimes.lazySet(producerIndex, intended);
+        while (now < intended) {
+          LockSupport.parkNanos(intended - now);
+          now = System.nanoTime();
+        }
+      }
+      if (intended >= deadline) {
+        // the messages of the batch that will not be sent are not waited for
+        for (long unsent = batchEnd - i; unsent > 0; unsent--) {
+          batchLatch.countDown();
+        }
+        break;
+      }
+      if (sync && i % settings.batchSize == 0) {
+        if (batchLatch != null) {
+          batchLatch.await(1, TimeUnit.MINUTES);
+        }
+        batchEnd = Math.min(i + settings.batchSize, messageCount);
+        batchLatch = new CountDownLatch((int) (batchEnd - i));
+      }
+      Message message =
+          producer
+              .messageBuilder()
+              .properties()
+              .messageId(i)
+              .messageBuilder()
+              .addData(body(LatencyRecorder.currentTimeNanos() - (now - intended)))
+              .build();
+      if (track) {
+        long sent = intended;
+        CountDownLatch latch = batchLatch;
+        producer.send(
+            message,
+            confirmationStatus -> {
+              if (confirmationStatus.isConfirmed()) {
+                confirmLatency.recordValue(System.nanoTime() - sent);
+                confirmed.increment();
+              } else {
+                failed.increment();
+              }
+              if (latch != null) {
+                latch.countDown();
+              }
+            });
+      } else {
+        producer.send(message, noOp);
+      }
+      published.increment();
+      publishedToStream.increment();
+    }
+    nextSendTimes.set(producerIndex, Long.MAX_VALUE);
+    if (batchLatch != null) {
+      batchLatch.await(1, TimeUnit.MINUTES);
+    }
+  }
+
+  private byte[] body(long timestamp) {
+    byte[] body = new byte[Math.max(Long.BYTES, settings.messageSize)];
+    ByteBuffer.wrap(body).putLong(timestamp);
+    return body;
+  }
+
+  private static long sendingTime(Message message) {
+    byte[] body = message.getBodyAsBinary();
+    return body != null && body.length >= Long.BYTES ? ByteBuffer.wrap(body).getLong() : -1;
+  }
+
+  private PrintStream csv() {
+    if (settings.csvFile == null || settings.csvFile.isEmpty()) {
+      return null;
+    }
+    try {
+      PrintStream csv = new PrintStream(settings.csvFile);
+      csv.println(
+          "time,published,confirmed,failed,consumed,published_rate,confirmed_rate,consumed_rate,"
+              + "confirm_latency_p50_ms,confirm_latency_p99_ms,confirm_latency_max_ms,"
+              + "latency_p50_ms,latency_p99_ms,latency_max_ms,"
+              + "target_rate,behind,schedule_lag_ms");
+      return csv;
+    } catch (FileNotFoundException e) {
+      throw new IllegalArgumentException("Cannot write results to " + settings.csvFile, e);
+    }
+  }
+
+  private synchronized void report(PrintStream csv) {
+    long now = System.nanoTime();
+    long elapsed = Math.max(1, now - lastReport);
+    lastReport = now;
+    long publishedCount = published.sum();
+    long confirmedCount = confirmed.sum();
+    long failedCount = failed.sum();
+    long consumedCount = consumed.sum();
+    long publishedRate = (publishedCount - lastPublished) * 1_000_000_000L / elapsed;
+    long confirmedRate = (confirmedCount - lastConfirmed) * 1_000_000_000L / elapsed;
+    long consumedRate = (consumedCount - lastConsumed) * 1_000_000_000L / elapsed;
+    lastPublished = publishedCount;
+    lastConfirmed = confirmedCount;
+    lastConsumed = consumedCount;
+    intervalConfirmLatency = confirmLatency.getIntervalHistogram(intervalConfirmLatency);
+    intervalLatency = latency.getIntervalHistogram(intervalLatency);
+    totalConfirmLatency.add(intervalConfirmLatency);
+    totalLatency.add(intervalLatency);
+    long time = TimeUnit.NANOSECONDS.toSeconds(now - start);
+    long targetRate = 0;
+    long behind = 0;
+    long scheduleLag = 0;
+    if (settings.rateProfile != null) {
+      long scheduleTime = now - start;
+      if (settings.duration > 0) {
+        scheduleTime = Math.min(scheduleTime, TimeUnit.SECONDS.toNanos(settings.duration));
+      }
+      double expected = Math.min(settings.rateProfile.expected(scheduleTime), settings.messages);
+      // average over the interval, the rate can change within it
+      targetRate = (long) ((expected - lastExpected) * 1_000_000_000L / elapsed);
+      lastExpected = expected;
+      behind = Math.max(0, (long) expected - publishedCount);
+      long oldest = Long.MAX_VALUE;
+      for (int i = 0; i < nextSendTimes.length(); i++) {
+        oldest = Math.min(oldest, nextSendTimes.get(i));
+      }
+      scheduleLag = oldest == Long.MAX_VALUE ? 0 : Math.max(0, now - oldest);
+      maxScheduleLag = Math.max(maxScheduleLag, scheduleLag);
+    }
+    log(
+        "%4ds, published %,d msg/s, confirmed %,d msg/s, consumed %,d msg/s, "
+            + "confirm latency p50 %.2f ms p99 %.2f ms, latency p50 %.2f ms p99 %.2f ms%s",
+        time,
+        publishedRate,
+        confirmedRate,
+        consumedRate,
+        millis(intervalConfirmLatency.getValueAtPercentile(50)),
+        millis(intervalConfirmLatency.getValueAtPercentile(99)),
+        millis(intervalLatency.getValueAtPercentile(50)),
+        millis(intervalLatency.getValueAtPercentile(99)),
+        settings.rateProfile == null
+            ? ""
+            : String.format(
+                ", target %,d msg/s, behind %,d msg (%.1f ms)",
+                targetRate, behind, millis(scheduleLag)));
+    if (csv != null) {
+      csv.println(
+          String.format(
+              Locale.ROOT,
+              "%d,%d,%d,%d,%d,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d,%.3f",
+              time,
+              publishedCount,
+              confirmedCount,
+              failedCount,
+              consumedCount,
+              publishedRate,
+              confirmedRate,
+              consumedRate,
+              millis(intervalConfirmLatency.getValueAtPercentile(50)),
+              millis(intervalConfirmLatency.getValueAtPercentile(99)),
+              millis(intervalConfirmLatency.getMaxValue()),
+              millis(intervalLatency.getValueAtPercentile(50)),
+              millis(intervalLatency.getValueAtPercentile(99)),
+              millis(intervalLatency.getMaxValue()),
+              targetRate,
+              behind,
+              millis(scheduleLag)));
+      csv.flush();
+    }
+  }
+
+  static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+
+  /**
+   * Load settings, from system properties with {@link #fromSystemProperties()}.
+   *
+   * <ul>
+   *   <li><code>-Dstream.stream</code>: stream name, suffixed with an index if there are several
+   *       (default is <code>load-generator-stream</code>)
+   *   <li><code>-Dstream.streams</code>: number of streams (default is 1)
+   *   <li><code>-Dstream.producers</code>, <code>-Dstream.consumers</code>: number of producers and
+   *       consumers, spread over the streams (default is 1 each)
+   *   <li><code>-Dstream.message.size</code>: body size in bytes, at least 8 (default is 11)
+   *   <li><code>-Dstream.messages</code>: total number of messages (default is 1,000,000)
+   *   <li><code>-Dstream.duration</code>: maximum publishing time in seconds (default is 0, no
+   *       limit)
+   *   <li><code>-Dstream.rate</code>: total target rate in messages/second (default is 0, as fast
+   *       as possible), the maximum rate of the <code>-Dstream.rate.profile</code> (see {@link
+   *       RateProfile#fromSystemProperties(long)}, the ramp lasts <code>-Dstream.duration</code>)
+   *   <li><code>-Dstream.batch.size</code>: producer batch size (default is 100)
+   *   <li><code>-Dstream.confirm</code>: <code>async</code> (the default, the producer's limit of
+   *       unconfirmed messages applies), <code>sync</code> (waits for the confirms of each batch)
+   *       or <code>none</code> (no confirm tracking)
+   *   <li><code>-Dstream.report.interval</code>: seconds between report lines (default is 1)
+   *   <li><code>-Dstream.csv</code>: CSV file for the report lines (default is <code>
+   *       target/load-generator.csv</code>, empty to disable)
+   * </ul>
+   */
+  public static class Settings {
+
+    private String stream = "load-generator-stream";
+    private int streams = 1;
+    private int producers = 1;
+    private int consumers = 1;
+    private int messageSize = 11;
+    private long messages = 1_000_000;
+    private int duration = 0;
+    private long rate = 0;
+    private RateProfile rateProfile;
+    private int batchSize = 100;
+    private String confirm = CONFIRM_ASYNC;
+    private int reportInterval = 1;
+    private String csvFile = "target/load-generator.csv";
+
+    public static Settings fromSystemProperties() {
+      Settings settings = new Settings();
+      settings.stream = System.getProperty("stream.stream", settings.stream);
+      settings.streams = Integer.getInteger("stream.streams", settings.streams);
+      settings.producers = Integer.getInteger("stream.producers", settings.producers);
+      settings.consumers = Integer.getInteger("stream.consumers", settings.consumers);
+      settings.messageSize = Integer.getInteger("stream.message.size", settings.messageSize);
+      settings.messages = Long.getLong("stream.messages", settings.messages);
+      settings.duration = Integer.getInteger("stream.duration", settings.duration);
+      settings.rate = Long.getLong("stream.rate", settings.rate);
+      settings.batchSize = Integer.getInteger("stream.batch.size", settings.batchSize);
+      settings.confirm = System.getProperty("stream.confirm", settings.confirm);
+      settings.reportInterval =
+          Integer.getInteger("stream.report.interval", settings.reportInterval);
+      settings.csvFile = System.getProperty("stream.csv", settings.csvFile);
+      if (settings.rate > 0) {
+        settings.rateProfile = RateProfile.fromSystemProperties(settings.duration);
+      }
+      settings.validate();
+      return settings;
+    }
+
+    void validate() {
+      if (streams < 1 || producers < 1 || consumers < 0 || batchSize < 1 || reportInterval < 1) {
+        throw new IllegalArgumentException(
+            "At least 1 stream, 1 producer, a positive batch size and report interval expected");
+      }
+      if (!CONFIRM_ASYNC.equals(confirm)
+          && !CONFIRM_SYNC.equals(confirm)
+          && !CONFIRM_NONE.equals(confirm)) {
+        throw new IllegalArgumentException("Unknown confirm mode: " + confirm);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d stream(s), %d producer(s), %d consumer(s), %,d messages of %d bytes, "
+              + "duration %s, rate %s, batch size %d, confirm %s",
+          streams,
+          producers,
+          consumers,
+          messages,
+          Math.max(Long.BYTES, messageSize),
+          duration > 0 ? duration + " s" : "unlimited",
+          rateProfile == null ? "unlimited" : rateProfile,
+          batchSize,
+          confirm);
+    }
+  }
+
+  public static class Result {
+
+    private final long published;
+    private final long confirmed;
+    private final long failed;
+    private final long consumed;
+    private final long publishingDurationInNanos;
+    private final long durationInNanos;
+    private final boolean complete;
+    private final boolean scheduled;
+    private final long maxScheduleLag;
+    private final Histogram confirmLatency;
+    private final Histogram latency;
+
+    Result(
+        long published,
+        long confirmed,
+        long failed,
+        long consumed,
+        long publishingDurationInNanos,
+        long durationInNanos,
+        boolean complete,
+        boolean scheduled,
+        long maxScheduleLag,
+        Histogram confirmLatency,
+        Histogram latency) {
+      this.published = published;
+      this.confirmed = confirmed;
+      this.failed = failed;
+      this.consumed = consumed;
+      this.publishingDurationInNanos = publishingDurationInNanos;
+      this.durationInNanos = durationInNanos;
+      this.complete = complete;
+      this.scheduled = scheduled;
+      this.maxScheduleLag = maxScheduleLag;
+      this.confirmLatency = confirmLatency;
+      this.latency = latency;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s published %,d, confirmed %,d, failed %,d, consumed %,d in %d ms "
+              + "(publish rate %,d msg/s%s)%nconfirm latency %s%nlatency %s",
+          complete ? "Complete," : "Incomplete (timed out),",
+          published,
+          confirmed,
+          failed,
+          consumed,
+          TimeUnit.NANOSECONDS.toMillis(durationInNanos),
+          published * 1_000_000_000L / Math.max(1, publishingDurationInNanos),
+          scheduled
+              ? String.format(
+                  ", up to %.1f ms behind schedule, latencies from intended send time",
+                  millis(maxScheduleLag))
+              : "",
+          LatencyRecorder.summary(confirmLatency),
+          LatencyRecorder.summary(latency));
+    }
+  }
+}
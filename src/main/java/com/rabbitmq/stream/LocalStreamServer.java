@@ -0,0 +1,791 @@
+package com.rabbitmq.stream;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-JVM stand-in for a RabbitMQ node with the stream plugin.
+ *
+ * <p>It speaks enough of the stream protocol for the samples: stream creation and deletion,
+ * publishing with confirms and deduplication, subscriptions with credits, and offset tracking.
+ * Streams are stored in segment files under a directory, so data survives restarts.
+ */
+public class LocalStreamServer implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LocalStreamServer.class);
+
+  static final String ADVERTISED_HOST = "localhost";
+  static final int DEFAULT_PORT = 5552;
+
+  private static final int MAX_FRAME_SIZE = 1_048_576;
+  private static final int HEARTBEAT = 60;
+
+  private static final short VERSION_1 = 1;
+  private static final short COMMAND_TUNE = 20;
+
+  private final Path directory;
+  private final EventLoopGroup bossGroup;
+  private final EventLoopGroup workerGroup;
+  private final Channel serverChannel;
+  private final int port;
+  private final ConcurrentMap<String, SegmentLog> streams = new ConcurrentHashMap<>();
+  private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  private LocalStreamServer(Path directory, int port) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+    try (Stream<Path> list = Files.list(directory)) {
+      for (Path streamDirectory : (Iterable<Path>) list::iterator) {
+        if (Files.isDirectory(streamDirectory)) {
+          streams.put(streamDirectory.getFileName().toString(), SegmentLog.open(streamDirectory));
+        }
+      }
+    }
+    this.bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("local-stream-boss", true));
+    this.workerGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("local-stream", true));
+    ServerBootstrap bootstrap =
+        new ServerBootstrap()
+            .group(bossGroup, workerGroup)
+            .channel(NioServerSocketChannel.class)
+            .childOption(ChannelOption.TCP_NODELAY, true)
+            .childHandler(
+                new ChannelInitializer<SocketChannel>() {
+                  @Override
+                  protected void initChannel(SocketChannel ch) {
+                    ch.pipeline()
+                        .addLast(new IdleStateHandler(0, HEARTBEAT, 0))
+                        .addLast(new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, 4, 0, 4))
+                        .addLast(new Connection());
+                  }
+                });
+    try {
+      this.serverChannel = bootstrap.bind(port).sync().channel();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StreamException(e);
+    }
+    this.port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+  }
+
+  public static LocalStreamServer start(Path directory, int port) {
+    try {
+      return new LocalStreamServer(directory, port);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public int port() {
+    return port;
+  }
+
+  public String uri() {
+    return "rabbitmq-stream://" + ADVERTISED_HOST + ":" + port;
+  }
+
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      serverChannel.close().syncUninterruptibly();
+      connections.forEach(c -> c.channel.close());
+      workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+      bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+      streams.values().forEach(SegmentLog::close);
+    }
+  }
+
+  private static String readString(ByteBuf bb) {
+    short size = bb.readShort();
+    if (size <= 0) {
+      return size == 0 ? "" : null;
+    }
+    byte[] bytes = new byte[size];
+    bb.readBytes(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static Map<String, String> readMap(ByteBuf bb) {
+    int count = bb.readInt();
+    Map<String, String> map = new LinkedHashMap<>(count);
+    for (int i = 0; i < count; i++) {
+      map.put(readString(bb), readString(bb));
+    }
+    return map;
+  }
+
+  private static int stringSize(String value) {
+    return 2 + value.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  private static ByteBuf writeString(ByteBuf bb, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    return bb.writeShort(bytes.length).writeBytes(bytes);
+  }
+
+  private static int mapSize(Map<String, String> map) {
+    int size = 4;
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      size += stringSize(entry.getKey()) + stringSize(entry.getValue());
+    }
+    return size;
+  }
+
+  private static ByteBuf writeMap(ByteBuf bb, Map<String, String> map) {
+    bb.writeInt(map.size());
+    map.forEach((key, value) -> writeString(writeString(bb, key), value));
+    return bb;
+  }
+
+  private static short response(short command) {
+    return (short) (command | 0x8000);
+  }
+
+  private SegmentLog createStream(String stream, Map<String, String> arguments) throws IOException {
+    synchronized (streams) {
+      if (streams.containsKey(stream)) {
+        return null;
+      }
+      SegmentLog log = SegmentLog.create(directory.resolve(stream), arguments);
+      streams.put(stream, log);
+      return log;
+    }
+  }
+
+  private boolean deleteStream(String stream) throws IOException {
+    SegmentLog log;
+    synchronized (streams) {
+      log = streams.remove(stream);
+    }
+    if (log == null) {
+      return false;
+    }
+    connections.forEach(c -> c.streamDeleted(stream, log));
+    log.delete();
+    return true;
+  }
+
+  private static boolean validStreamName(String stream) {
+    return stream != null
+        && !stream.isEmpty()
+        && !stream.startsWith(".")
+        && stream.chars().noneMatch(c -> c == '/' || c == '\\' || c == ':');
+  }
+
+  private class Connection extends ChannelInboundHandlerAdapter {
+
+    private final Map<Byte, Publisher> publishers = new HashMap<>();
+    private final Map<Byte, Subscription> subscriptions = new HashMap<>();
+    private Channel channel;
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+      this.channel = ctx.channel();
+      connections.add(this);
+      super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+      connections.remove(this);
+      subscriptions.values().forEach(Subscription::cancel);
+      subscriptions.clear();
+      publishers.clear();
+      super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+      if (ctx.channel().isWritable()) {
+        subscriptions.values().forEach(Subscription::deliver);
+      }
+      super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+      if (evt instanceof IdleStateEvent
+          && ((IdleStateEvent) evt).state() == IdleState.WRITER_IDLE) {
+        ctx.writeAndFlush(
+            ctx.alloc()
+                .buffer(8)
+                .writeInt(4)
+                .writeShort(Constants.COMMAND_HEARTBEAT)
+                .writeShort(1));
+      }
+      super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      LOGGER.warn("Closing connection after error", cause);
+      ctx.close();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+      ByteBuf frame = (ByteBuf) msg;
+      try {
+        short key = frame.readShort();
+        frame.readShort(); // version
+        if ((key & 0x8000) != 0) {
+          // responses from the client (tune, close) need no follow-up
+          return;
+        }
+        switch (key) {
+          case Constants.COMMAND_PEER_PROPERTIES:
+            peerProperties(ctx, frame);
+            break;
+          case Constants.COMMAND_SASL_HANDSHAKE:
+            saslHandshake(ctx, frame);
+            break;
+          case Constants.COMMAND_SASL_AUTHENTICATE:
+            saslAuthenticate(ctx, frame);
+            break;
+          case Constants.COMMAND_OPEN:
+            open(ctx, frame);
+            break;
+          case Constants.COMMAND_HEARTBEAT:
+            break;
+          case Constants.COMMAND_CLOSE:
+            close(ctx, frame);
+            break;
+          case Constants.COMMAND_METADATA:
+            metadata(ctx, frame);
+            break;
+          case Constants.COMMAND_CREATE_STREAM:
+            create(ctx, frame);
+            break;
+          case Constants.COMMAND_DELETE_STREAM:
+            delete(ctx, frame);
+            break;
+          case Constants.COMMAND_DECLARE_PUBLISHER:
+            declarePublisher(ctx, frame);
+            break;
+          case Constants.COMMAND_DELETE_PUBLISHER:
+            deletePublisher(ctx, frame);
+            break;
+          case Constants.COMMAND_QUERY_PUBLISHER_SEQUENCE:
+            queryPublisherSequence(ctx, frame);
+            break;
+          case Constants.COMMAND_PUBLISH:
+            publish(ctx, frame);
+            break;
+          case Constants.COMMAND_SUBSCRIBE:
+            subscribe(ctx, frame);
+            break;
+          case Constants.COMMAND_CREDIT:
+            credit(ctx, frame);
+            break;
+          case Constants.COMMAND_UNSUBSCRIBE:
+            unsubscribe(ctx, frame);
+            break;
+          case Constants.COMMAND_STORE_OFFSET:
+            storeOffset(frame);
+            break;
+          case Constants.COMMAND_QUERY_OFFSET:
+            queryOffset(ctx, frame);
+            break;
+          default:
+            // requests start with a correlation ID, answer with an error
+            if (frame.readableBytes() >= 4) {
+              respond(ctx, key, frame.readInt(), Constants.RESPONSE_CODE_UNKNOWN_FRAME);
+            }
+        }
+      } finally {
+        frame.release();
+      }
+    }
+
+    private void respond(ChannelHandlerContext ctx, short key, int correlationId, short code) {
+      ctx.writeAndFlush(
+          ctx.alloc()
+              .buffer(14)
+              .writeInt(10)
+              .writeShort(response(key))
+              .writeShort(VERSION_1)
+              .writeInt(correlationId)
+              .writeShort(code));
+    }
+
+    private void peerProperties(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      Map<String, String> properties = new LinkedHashMap<>();
+      properties.put("product", "RabbitMQ");
+      properties.put("version", "3.9.0");
+      properties.put("platform", "Java (local stream server)");
+      int length = 2 + 2 + 4 + 2 + mapSize(properties);
+      ByteBuf bb =
+          ctx.alloc()
+              .buffer(length + 4)
+              .writeInt(length)
+              .writeShort(response(Constants.COMMAND_PEER_PROPERTIES))
+              .writeShort(VERSION_1)
+              .writeInt(correlationId)
+              .writeShort(Constants.RESPONSE_CODE_OK);
+      ctx.writeAndFlush(writeMap(bb, properties));
+    }
+
+    private void saslHandshake(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      int length = 2 + 2 + 4 + 2 + 4 + stringSize("PLAIN");
+      ByteBuf bb =
+          ctx.alloc()
+              .buffer(length + 4)
+              .writeInt(length)
+              .writeShort(response(Constants.COMMAND_SASL_HANDSHAKE))
+              .writeShort(VERSION_1)
+              .writeInt(correlationId)
+              .writeShort(Constants.RESPONSE_CODE_OK)
+              .writeInt(1);
+      ctx.writeAndFlush(writeString(bb, "PLAIN"));
+    }
+
+    private void saslAuthenticate(ChannelHandlerContext ctx, ByteBuf frame) {
+      // any credentials are accepted
+      respond(
+          ctx, Constants.COMMAND_SASL_AUTHENTICATE, frame.readInt(), Constants.RESPONSE_CODE_OK);
+      ctx.writeAndFlush(
+          ctx.alloc()
+              .buffer(16)
+              .writeInt(12)
+              .writeShort(COMMAND_TUNE)
+              .writeShort(VERSION_1)
+              .writeInt(MAX_FRAME_SIZE)
+              .writeInt(HEARTBEAT));
+    }
+
+    private void open(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      Map<String, String> properties = new LinkedHashMap<>();
+      properties.put("advertised_host", ADVERTISED_HOST);
+      properties.put("advertised_port", String.valueOf(port));
+      int length = 2 + 2 + 4 + 2 + mapSize(properties);
+      ByteBuf bb =
+          ctx.alloc()
+              .buffer(length + 4)
+              .writeInt(length)
+              .writeShort(response(Constants.COMMAND_OPEN))
+              .writeShort(VERSION_1)
+              .writeInt(correlationId)
+              .writeShort(Constants.RESPONSE_CODE_OK);
+      ctx.writeAndFlush(writeMap(bb, properties));
+    }
+
+    private void close(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      ctx.writeAndFlush(
+              ctx.alloc()
+                  .buffer(14)
+                  .writeInt(10)
+                  .writeShort(response(Constants.COMMAND_CLOSE))
+                  .writeShort(VERSION_1)
+                  .writeInt(correlationId)
+                  .writeShort(Constants.RESPONSE_CODE_OK))
+          .addListener(f -> ctx.close());
+    }
+
+    private void metadata(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      int count = frame.readInt();
+      String[] requested = new String[count];
+      int length = 2 + 2 + 4 + 4 + 2 + stringSize(ADVERTISED_HOST) + 4 + 4;
+      for (int i = 0; i < count; i++) {
+        requested[i] = readString(frame);
+        length += stringSize(requested[i]) + 2 + 2 + 4;
+      }
+      ByteBuf bb =
+          ctx.alloc()
+              .buffer(length + 4)
+              .writeInt(length)
+              .writeShort(response(Constants.COMMAND_METADATA))
+              .writeShort(VERSION_1)
+              .writeInt(correlationId)
+              .writeInt(1)
+              .writeShort(0);
+      writeString(bb, ADVERTISED_HOST).writeInt(port).writeInt(count);
+      for (String stream : requested) {
+        boolean exists = streams.containsKey(stream);
+        writeString(bb, stream)
+            .writeShort(
+                exists ? Constants.RESPONSE_CODE_OK : Constants.RESPONSE_CODE_STREAM_DOES_NOT_EXIST)
+            .writeShort(exists ? 0 : -1)
+            .writeInt(0);
+      }
+      ctx.writeAndFlush(bb);
+    }
+
+    private void create(ChannelHandlerContext ctx, ByteBuf frame) throws IOException {
+      int correlationId = frame.readInt();
+      String stream = readString(frame);
+      Map<String, String> arguments = readMap(frame);
+      short code;
+      if (!validStreamName(stream)) {
+        code = Constants.RESPONSE_CODE_PRECONDITION_FAILED;
+      } else if (createStream(stream, arguments) == null) {
+        code = Constants.RESPONSE_CODE_STREAM_ALREADY_EXISTS;
+      } else {
+        code = Constants.RESPONSE_CODE_OK;
+      }
+      respond(ctx, Constants.COMMAND_CREATE_STREAM, correlationId, code);
+    }
+
+    private void delete(ChannelHandlerContext ctx, ByteBuf frame) throws IOException {
+      int correlationId = frame.readInt();
+      String stream = readString(frame);
+      respond(
+          ctx,
+          Constants.COMMAND_DELETE_STREAM,
+          correlationId,
+          deleteStream(stream)
+              ? Constants.RESPONSE_CODE_OK
+              : Constants.RESPONSE_CODE_STREAM_DOES_NOT_EXIST);
+    }
+
+    private void streamDeleted(String stream, SegmentLog log) {
+      channel
+          .eventLoop()
+          .execute(
+              () -> {
+                boolean affected = publishers.values().removeIf(p -> p.log == log);
+                for (Subscription subscription : subscriptions.values()) {
+                  if (subscription.log == log) {
+                    subscription.cancel();
+                    affected = true;
+                  }
+                }
+                subscriptions.values().removeIf(s -> s.log == log);
+                if (affected) {
+                  int length = 2 + 2 + 2 + stringSize(stream);
+                  ByteBuf bb =
+                      channel
+                          .alloc()
+                          .buffer(length + 4)
+                          .writeInt(length)
+                          .writeShort(Constants.COMMAND_METADATA_UPDATE)
+                          .writeShort(VERSION_1)
+                          .writeShort(Constants.RESPONSE_CODE_STREAM_NOT_AVAILABLE);
+                  channel.writeAndFlush(writeString(bb, stream));
+                }
+              });
+    }
+
+    private void declarePublisher(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      byte publisherId = frame.readByte();
+      String reference = readString(frame);
+      String stream = readString(frame);
+      SegmentLog log = streams.get(stream);
+      short code;
+      if (log == null) {
+        code = Constants.RESPONSE_CODE_STREAM_DOES_NOT_EXIST;
+      } else {
+        publishers.put(
+            publisherId,
+            new Publisher(reference == null || reference.isEmpty() ? null : reference, log));
+        code = Constants.RESPONSE_CODE_OK;
+      }
+      respond(ctx, Constants.COMMAND_DECLARE_PUBLISHER, correlationId, code);
+    }
+
+    private void deletePublisher(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      Publisher publisher = publishers.remove(frame.readByte());
+      respond(
+          ctx,
+          Constants.COMMAND_DELETE_PUBLISHER,
+          correlationId,
+          publisher == null
+              ? Constants.RESPONSE_CODE_PUBLISHER_DOES_NOT_EXIST
+              : Constants.RESPONSE_CODE_OK);
+    }
+
+    private void queryPublisherSequence(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      String reference = readString(frame);
+      SegmentLog log = streams.get(readString(frame));
+      ctx.writeAndFlush(
+          ctx.alloc()
+              .buffer(22)
+              .writeInt(18)
+              .writeShort(response(Constants.COMMAND_QUERY_PUBLISHER_SEQUENCE))
+              .writeShort(VERSION_1)
+              .writeInt(correlationId)
+              .writeShort(
+                  log == null
+                      ? Constants.RESPONSE_CODE_STREAM_DOES_NOT_EXIST
+                      : Constants.RESPONSE_CODE_OK)
+              .writeLong(log == null ? 0 : log.publisherSequence(reference)));
+    }
+
+    private void publish(ChannelHandlerContext ctx, ByteBuf frame) {
+      byte publisherId = frame.readByte();
+      int messageCount = frame.readInt();
+      Publisher publisher = publishers.get(publisherId);
+      if (publisher == null) {
+        ByteBuf errors =
+            ctx.alloc()
+                .buffer(4 + 2 + 2 + 1 + 4 + messageCount * 10)
+                .writeInt(2 + 2 + 1 + 4 + messageCount * 10)
+                .writeShort(Constants.COMMAND_PUBLISH_ERROR)
+                .writeShort(VERSION_1)
+                .writeByte(publisherId)
+                .writeInt(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+          errors.writeLong(frame.readLong());
+          if ((frame.getByte(frame.readerIndex()) & 0x80) == 0) {
+            frame.skipBytes(frame.readInt());
+          } else {
+            frame.skipBytes(1 + 2 + 4);
+            frame.skipBytes(frame.readInt());
+          }
+          errors.writeShort(Constants.RESPONSE_CODE_PUBLISHER_DOES_NOT_EXIST);
+        }
+        ctx.writeAndFlush(errors);
+        return;
+      }
+      int length = 2 + 2 + 1 + 4 + messageCount * 8;
+      ByteBuf confirms =
+          ctx.alloc()
+              .buffer(length + 4)
+              .writeInt(length)
+              .writeShort(Constants.COMMAND_PUBLISH_CONFIRM)
+              .writeShort(VERSION_1)
+              .writeByte(publisherId)
+              .writeInt(messageCount);
+      try {
+        publisher.log.publish(publisher.reference, frame, messageCount, ctx.alloc(), confirms);
+      } catch (RuntimeException e) {
+        confirms.release();
+        throw e;
+      }
+      ctx.writeAndFlush(confirms);
+    }
+
+    private void subscribe(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      byte subscriptionId = frame.readByte();
+      String stream = readString(frame);
+      short type = frame.readShort();
+      long value = type == 4 || type == 5 ? frame.readLong() : 0;
+      int credit = frame.readUnsignedShort();
+      Map<String, String> properties = frame.isReadable() ? readMap(frame) : Collections.emptyMap();
+      SegmentLog log = streams.get(stream);
+      if (log == null) {
+        respond(
+            ctx,
+            Constants.COMMAND_SUBSCRIBE,
+            correlationId,
+            Constants.RESPONSE_CODE_STREAM_DOES_NOT_EXIST);
+        return;
+      } else if (subscriptions.containsKey(subscriptionId)) {
+        respond(
+            ctx,
+            Constants.COMMAND_SUBSCRIBE,
+            correlationId,
+            Constants.RESPONSE_CODE_SUBSCRIPTION_ID_ALREADY_EXISTS);
+        return;
+      }
+      long offset;
+      switch (type) {
+        case 1: // first
+          offset = log.firstOffset();
+          break;
+        case 2: // last
+          offset = log.lastChunkOffset();
+          break;
+        case 4: // offset
+          offset = Math.max(value, log.firstOffset());
+          break;
+        case 5: // timestamp
+          offset = log.offsetForTimestamp(value);
+          break;
+        default: // next
+          offset = log.nextOffset();
+      }
+      Subscription subscription = new Subscription(subscriptionId, log, offset, credit);
+      subscriptions.put(subscriptionId, subscription);
+      respond(ctx, Constants.COMMAND_SUBSCRIBE, correlationId, Constants.RESPONSE_CODE_OK);
+      log.addListener(subscription.listener);
+      subscription.deliver();
+    }
+
+    private void credit(ChannelHandlerContext ctx, ByteBuf frame) {
+      byte subscriptionId = frame.readByte();
+      int credit = frame.readUnsignedShort();
+      Subscription subscription = subscriptions.get(subscriptionId);
+      if (subscription == null) {
+        ctx.writeAndFlush(
+            ctx.alloc()
+                .buffer(11)
+                .writeInt(7)
+                .writeShort(response(Constants.COMMAND_CREDIT))
+                .writeShort(VERSION_1)
+                .writeShort(Constants.RESPONSE_CODE_SUBSCRIPTION_ID_DOES_NOT_EXIST)
+                .writeByte(subscriptionId));
+      } else {
+        subscription.credit += credit;
+        subscription.deliver();
+      }
+    }
+
+    private void unsubscribe(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      Subscription subscription = subscriptions.remove(frame.readByte());
+      if (subscription != null) {
+        subscription.cancel();
+      }
+      respond(
+          ctx,
+          Constants.COMMAND_UNSUBSCRIBE,
+          correlationId,
+          subscription == null
+              ? Constants.RESPONSE_CODE_SUBSCRIPTION_ID_DOES_NOT_EXIST
+              : Constants.RESPONSE_CODE_OK);
+    }
+
+    private void storeOffset(ByteBuf frame) {
+      String reference = readString(frame);
+      SegmentLog log = streams.get(readString(frame));
+      long offset = frame.readLong();
+      if (log != null) {
+        log.storeOffset(reference, offset);
+      }
+    }
+
+    private void queryOffset(ChannelHandlerContext ctx, ByteBuf frame) {
+      int correlationId = frame.readInt();
+      String reference = readString(frame);
+      SegmentLog log = streams.get(readString(frame));
+      ctx.writeAndFlush(
+          ctx.alloc()
+              .buffer(22)
+              .writeInt(18)
+              .writeShort(response(Constants.COMMAND_QUERY_OFFSET))
+              .writeShort(VERSION_1)
+              .writeInt(correlationId)
+              .writeShort(
+                  log == null
+                      ? Constants.RESPONSE_CODE_STREAM_DOES_NOT_EXIST
+                      : Constants.RESPONSE_CODE_OK)
+              .writeLong(log == null ? 0 : log.queryOffset(reference)));
+    }
+
+    private class Subscription {
+
+      private final byte id;
+      private final SegmentLog log;
+      private final AtomicBoolean scheduled = new AtomicBoolean(false);
+      private final Runnable listener;
+      private long offset;
+      private int credit;
+      private boolean cancelled = false;
+
+      private Subscription(byte id, SegmentLog log, long offset, int credit) {
+        this.id = id;
+        this.log = log;
+        this.offset = offset;
+        this.credit = credit;
+        this.listener =
+            () -> {
+              if (scheduled.compareAndSet(false, true)) {
+                channel.eventLoop().execute(this::deliver);
+              }
+            };
+      }
+
+      // called on the connection event loop only
+      private void deliver() {
+        scheduled.set(false);
+        boolean written = false;
+        while (!cancelled && credit > 0 && channel.isWritable()) {
+          SegmentLog.Chunk chunk = log.chunk(offset);
+          if (chunk == null) {
+            break;
+          }
+          int length = 2 + 2 + 1 + chunk.size;
+          ByteBuf bb =
+              channel
+                  .alloc()
+                  .directBuffer(length + 4)
+                  .writeInt(length)
+                  .writeShort(Constants.COMMAND_DELIVER)
+                  .writeShort(VERSION_1)
+                  .writeByte(id);
+          if (log.read(chunk, bb)) {
+            channel.write(bb);
+            written = true;
+            credit--;
+          } else {
+            // chunk removed by retention in the meantime
+            bb.release();
+          }
+          offset = Math.max(offset, chunk.firstOffset + chunk.records);
+        }
+        if (written) {
+          channel.flush();
+        }
+      }
+
+      private void cancel() {
+        cancelled = true;
+        log.removeListener(listener);
+      }
+    }
+  }
+
+  private static class Publisher {
+
+    private final String reference;
+    private final SegmentLog log;
+
+    private Publisher(String reference, SegmentLog log) {
+      this.reference = reference;
+      this.log = log;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Path directory = Paths.get(args.length > 0 ? args[0] : Utils.LOCAL_SERVER_DIRECTORY);
+    try (LocalStreamServer server = start(directory, DEFAULT_PORT)) {
+      System.out.println(
+          String.format(
+              "Local stream server listening on %s (data in %s), press Enter to exit...",
+              server.uri(), directory.toAbsolutePath()));
+      System.in.read();
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.rabbitmq.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+
+/**
+ * Access to message bodies without copying them.
+ *
+ * <p>With the Qpid Proton codec (the default) and {@link LightCodec}, the body is read where the
+ * codec decoded it: {@link #matches(Message, Matcher)} and {@link #decode(Message, Decoder)} do not
+ * allocate (the decoder may), {@link #view(Message)} allocates only the view. Other codecs go
+ * through {@link Message#getBodyAsBinary()}.
+ */
+public final class MessageBody {
+
+  private MessageBody() {}
+
+  /** Read-only view of the body. */
+  public static ByteBuffer view(Message message) {
+    Binary body = binary(message);
+    return ByteBuffer.wrap(body.getArray(), body.getArrayOffset(), body.getLength())
+        .slice()
+        .asReadOnlyBuffer();
+  }
+
+  public static boolean matches(Message message, Matcher matcher) {
+    Binary body = binary(message);
+    return matcher.matches(body.getArray(), body.getArrayOffset(), body.getLength());
+  }
+
+  public static <T> T decode(Message message, Decoder<T> decoder) {
+    Binary body = binary(message);
+    return decoder.decode(body.getArray(), body.getArrayOffset(), body.getLength());
+  }
+
+  public static long decodeLong(Message message, LongDecoder decoder) {
+    Binary body = binary(message);
+    return decoder.decode(body.getArray(), body.getArrayOffset(), body.getLength());
+  }
+
+  private static Binary binary(Message message) {
+    Object body = message.getBody();
+    if (body instanceof Data) {
+      return ((Data) body).getValue();
+    } else if (body instanceof Binary) {
+      return (Binary) body;
+    } else if (body instanceof byte[]) {
+      return new Binary((byte[]) body);
+    } else {
+      return new Binary(message.getBodyAsBinary());
+    }
+  }
+
+  /** Tests the bytes of a body, must not keep a reference to the array. */
+  @FunctionalInterface
+  public interface Matcher {
+
+    boolean matches(byte[] array, int offset, int length);
+
+    default Matcher and(Matcher other) {
+      return (array, offset, length) ->
+          matches(array, offset, length) && other.matches(array, offset, length);
+    }
+
+    default Matcher or(Matcher other) {
+      return (array, offset, length) ->
+          matches(array, offset, length) || other.matches(array, offset, length);
+    }
+
+    default Matcher negate() {
+      return (array, offset, length) -> !matches(array, offset, length);
+    }
+
+    static Matcher equalTo(String value) {
+      byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+      return (array, offset, length) ->
+          length == expected.length && regionMatches(array, offset, expected);
+    }
+
+    static Matcher startsWith(String prefix) {
+      byte[] expected = prefix.getBytes(StandardCharsets.UTF_8);
+      return (array, offset, length) ->
+          length >= expected.length && regionMatches(array, offset, expected);
+    }
+
+    static Matcher contains(String value) {
+      byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+      return (array, offset, length) -> {
+        for (int i = offset; i <= offset + length - expected.length; i++) {
+          if (regionMatches(array, i, expected)) {
+            return true;
+          }
+        }
+        return false;
+      };
+    }
+  }
+
+  /** Turns the bytes of a body into a value, must not keep a reference to the array. */
+  @FunctionalInterface
+  public interface Decoder<T> {
+
+    T decode(byte[] array, int offset, int length);
+
+    static Decoder<String> utf8() {
+      return (array, offset, length) -> new String(array, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * UTF-8 decoder that returns the same {@link String} for bodies it has already decoded, for
+     * bodies with few distinct values. It keeps up to {@code capacity} strings (a power of 2) and
+     * is not thread-safe.
+     */
+    static Decoder<String> cachingUtf8(int capacity) {
+      if (Integer.bitCount(capacity) != 1) {
+        throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+      }
+      byte[][] keys = new byte[capacity][];
+      String[] values = new String[capacity];
+      return (array, offset, length) -> {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+          hash = 31 * hash + array[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (capacity - 1);
+        byte[] key = keys[slot];
+        if (key != null && key.length == length && regionMatches(array, offset, key)) {
+          return values[slot];
+        }
+        keys[slot] = Arrays.copyOfRange(array, offset, offset + length);
+        values[slot] = new String(array, offset, length, StandardCharsets.UTF_8);
+        return values[slot];
+      };
+    }
+  }
+
+  @FunctionalInterface
+  public interface LongDecoder {
+
+    long decode(byte[] array, int offset, int length);
+
+    /** Decimal number in ASCII, like "42" or "-42". */
+    static LongDecoder asciiLong() {
+      return (array, offset, length) -> {
+        if (length == 0) {
+          throw new NumberFormatException("Empty body");
+        }
+        boolean negative = array[offset] == '-';
+        long value = 0;
+        for (int i = negative ? offset + 1 : offset; i < offset + length; i++) {
+          int digit = array[i] - '0';
+          if (digit < 0 || digit > 9) {
+            throw new NumberFormatException("Not a digit at index " + (i - offset));
+          }
+          value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+      };
+    }
+
+    /** 8-byte big-endian integer. */
+    static LongDecoder bigEndianLong() {
+      return (array, offset, length) -> {
+        if (length != 8) {
+          throw new IllegalArgumentException("Expected 8 bytes, got " + length);
+        }
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+          value = (value << 8) | (array[i] & 0xff);
+        }
+        return value;
+      };
+    }
+  }
+
+  static boolean regionMatches(byte[] array, int offset, byte[] expected) {
+    for (int i = 0; i < expected.length; i++) {
+      if (array[offset + i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
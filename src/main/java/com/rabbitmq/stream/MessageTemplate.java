@@ -0,0 +1,226 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.stream.codec.QpidProtonCodec;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A message with a fixed body and a fixed property layout, encoded to AMQP 1.0 once.
+ *
+ * <p>Only the message ID, the creation time and the publishing ID change from one message to the
+ * next. They are patched in place in pooled, pre-encoded buffers, so publishing with a {@link Pool}
+ * creates (almost) no garbage per message. The environment must use the {@link #codec()} for the
+ * pre-encoded bytes to reach the wire untouched.
+ */
+public class MessageTemplate {
+
+  private static final int MESSAGE_ID_INDEX = 7;
+  private static final int CREATION_TIME_INDEX = 24;
+
+  private final byte[] encoded;
+
+  public MessageTemplate(byte[] body) {
+    int headerSize = body.length <= 0xFF ? 2 : 5;
+    this.encoded = new byte[32 + 3 + headerSize + body.length];
+    int i = 0;
+    // properties section: message-id (ulong), 8 nulls, creation-time (timestamp)
+    encoded[i++] = 0x00;
+    encoded[i++] = 0x53;
+    encoded[i++] = 0x73;
+    encoded[i++] = (byte) 0xc0;
+    encoded[i++] = 27;
+    encoded[i++] = 10;
+    encoded[i++] = (byte) 0x80;
+    i += 8;
+    for (int j = 0; j < 8; j++) {
+      encoded[i++] = 0x40;
+    }
+    encoded[i++] = (byte) 0x83;
+    i += 8;
+    // data section
+    encoded[i++] = 0x00;
+    encoded[i++] = 0x53;
+    encoded[i++] = 0x75;
+    if (headerSize == 2) {
+      encoded[i++] = (byte) 0xa0;
+      encoded[i++] = (byte) body.length;
+    } else {
+      encoded[i++] = (byte) 0xb0;
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        encoded[i++] = (byte) (body.length >>> shift);
+      }
+    }
+    System.arraycopy(body, 0, encoded, i, body.length);
+  }
+
+  /**
+   * Codec that writes {@link PreEncoded} messages (like template messages) as they are and
+   * delegates the others to Qpid Proton.
+   */
+  public static Codec codec() {
+    return new TemplateCodec(new QpidProtonCodec());
+  }
+
+  /**
+   * Pool of {@code size} messages that all notify {@code confirmationHandler}.
+   *
+   * <p>The size bounds the number of messages in flight: {@link Pool#send} blocks until a
+   * confirmation returns a message to the pool.
+   */
+  public Pool pool(int size, ConfirmationHandler confirmationHandler) {
+    return new Pool(this, size, confirmationHandler);
+  }
+
+  private static void putLong(byte[] array, int index, long value) {
+    for (int i = 7; i >= 0; i--) {
+      array[index + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  public static class Pool {
+
+    private final BlockingQueue<TemplateMessage> messages;
+    private final ConfirmationHandler confirmationHandler;
+
+    private Pool(MessageTemplate template, int size, ConfirmationHandler confirmationHandler) {
+      this.messages = new ArrayBlockingQueue<>(size);
+      this.confirmationHandler = confirmationHandler;
+      for (int i = 0; i < size; i++) {
+        this.messages.add(new TemplateMessage(this, template.encoded.clone()));
+      }
+    }
+
+    public void send(Producer producer, long messageId, long creationTime)
+        throws InterruptedException {
+      TemplateMessage message = messages.take();
+      message.set(messageId, creationTime);
+      producer.send(message, message);
+    }
+
+    public void send(Producer producer, long publishingId, long messageId, long creationTime)
+        throws InterruptedException {
+      TemplateMessage message = messages.take();
+      message.set(messageId, creationTime);
+      message.publishingId(publishingId);
+      producer.send(message, message);
+    }
+
+    public int available() {
+      return messages.size();
+    }
+  }
+
+  /** Message that carries its AMQP 1.0 encoding, for {@link #codec()}. */
+  public interface PreEncoded {
+
+    Codec.EncodedMessage encoded();
+  }
+
+  static class TemplateMessage implements Message, PreEncoded, ConfirmationHandler {
+
+    private final Pool pool;
+    private final byte[] encoded;
+    private final Codec.EncodedMessage encodedMessage;
+    private long publishingId = -1;
+
+    private TemplateMessage(Pool pool, byte[] encoded) {
+      this.pool = pool;
+      this.encoded = encoded;
+      this.encodedMessage = new Codec.EncodedMessage(encoded.length, encoded);
+    }
+
+    @Override
+    public Codec.EncodedMessage encoded() {
+      return encodedMessage;
+    }
+
+    private void set(long messageId, long creationTime) {
+      putLong(encoded, MESSAGE_ID_INDEX, messageId);
+      putLong(encoded, CREATION_TIME_INDEX, creationTime);
+      this.publishingId = -1;
+    }
+
+    private void publishingId(long publishingId) {
+      this.publishingId = publishingId;
+    }
+
+    @Override
+    public void handle(ConfirmationStatus confirmationStatus) {
+      // the confirmation status references this message, hence the callback first
+      try {
+        pool.confirmationHandler.handle(confirmationStatus);
+      } finally {
+        pool.messages.offer(this);
+      }
+    }
+
+    @Override
+    public boolean hasPublishingId() {
+      return publishingId >= 0;
+    }
+
+    @Override
+    public long getPublishingId() {
+      return publishingId;
+    }
+
+    @Override
+    public byte[] getBodyAsBinary() {
+      return decode().getBodyAsBinary();
+    }
+
+    @Override
+    public Object getBody() {
+      return decode().getBody();
+    }
+
+    @Override
+    public Properties getProperties() {
+      return decode().getProperties();
+    }
+
+    @Override
+    public Map<String, Object> getApplicationProperties() {
+      return null;
+    }
+
+    @Override
+    public Map<String, Object> getMessageAnnotations() {
+      return null;
+    }
+
+    private Message decode() {
+      return new QpidProtonCodec().decode(encoded);
+    }
+  }
+
+  private static class TemplateCodec implements Codec {
+
+    private final Codec delegate;
+
+    private TemplateCodec(Codec delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public EncodedMessage encode(Message message) {
+      if (message instanceof PreEncoded) {
+        return ((PreEncoded) message).encoded();
+      } else {
+        return delegate.encode(message);
+      }
+    }
+
+    @Override
+    public Message decode(byte[] data) {
+      return delegate.decode(data);
+    }
+
+    @Override
+    public MessageBuilder messageBuilder() {
+      return delegate.messageBuilder();
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package com.rabbitmq.stream;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stores the offset of a manual tracking consumer according to a {@link Policy}.
+ *
+ * <p>The handler reports each processed message with {@link #processed(MessageHandler.Context,
+ * Message)} (or the handler is wrapped with {@link #wrap(MessageHandler)}). When the policy says
+ * so, the offset is stored on a background thread, so the dispatching thread never waits for it,
+ * and requests that pile up before the store runs are coalesced into one store of the last offset.
+ * The policy is also checked periodically, so time-based policies store the last offset when
+ * messages stop coming.
+ *
+ * <p>The replay window is the number of messages processed since the last store, that is how many
+ * messages would be processed again after a crash.
+ */
+public class OffsetCommitter implements AutoCloseable {
+
+  private final Policy policy;
+  private final ScheduledExecutorService executor;
+  private final AtomicBoolean commitScheduled = new AtomicBoolean(false);
+  private final long start = System.nanoTime();
+
+  // guarded by this
+  private Consumer consumer;
+  private long firstOffset = -1, processedOffset = -1, requestedOffset = -1;
+  private long messages, bytes, lastRequest = System.nanoTime();
+  private long requests, maxReplayWindow;
+  private boolean closed = false;
+
+  // written by the committer thread only
+  private volatile long storedOffset = -1;
+  private volatile long commits = 0;
+  private volatile long closeCommits = 0;
+
+  public OffsetCommitter(Policy policy) {
+    this.policy = policy;
+    this.executor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "offset-committer");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.executor.scheduleAtFixedRate(this::tick, 100, 100, TimeUnit.MILLISECONDS);
+  }
+
+  /** Runs the handler and then reports the message as processed. */
+  public MessageHandler wrap(MessageHandler handler) {
+    return (context, message) -> {
+      handler.handle(context, message);
+      processed(context, message);
+    };
+  }
+
+  public void processed(MessageHandler.Context context, Message message) {
+    int size = bodySize(message);
+    synchronized (this) {
+      this.consumer = context.consumer();
+      if (this.firstOffset < 0) {
+        this.firstOffset = context.offset();
+      }
+      this.processedOffset = context.offset();
+      this.messages++;
+      this.bytes += size;
+      this.maxReplayWindow = Math.max(this.maxReplayWindow, replayWindow());
+      maybeRequest();
+    }
+  }
+
+  private static int bodySize(Message message) {
+    try {
+      byte[] body = message.getBodyAsBinary();
+      return body == null ? 0 : body.length;
+    } catch (RuntimeException e) {
+      // AMQP value or sequence body, not counted
+      return 0;
+    }
+  }
+
+  private void tick() {
+    synchronized (this) {
+      if (!closed && processedOffset > requestedOffset) {
+        maybeRequest();
+      }
+    }
+  }
+
+  // called with the lock held
+  private void maybeRequest() {
+    if (closed) {
+      // the executor does not accept tasks anymore, close() stores the last offset
+      return;
+    }
+    long now = System.nanoTime();
+    if (policy.shouldCommit(messages, bytes, now - lastRequest)) {
+      requestedOffset = processedOffset;
+      requests++;
+      messages = 0;
+      bytes = 0;
+      lastRequest = now;
+      if (commitScheduled.compareAndSet(false, true)) {
+        executor.execute(() -> commit(false));
+      }
+    }
+  }
+
+  private void commit(boolean onClose) {
+    commitScheduled.set(false);
+    Consumer consumer;
+    long offset;
+    synchronized (this) {
+      consumer = this.consumer;
+      offset = this.requestedOffset;
+    }
+    if (consumer != null && offset > storedOffset) {
+      consumer.store(offset);
+      storedOffset = offset;
+      commits++;
+      if (onClose) {
+        closeCommits++;
+      }
+    }
+  }
+
+  public long storedOffset() {
+    return storedOffset;
+  }
+
+  /** Number of offset stores, coalesced requests are not counted. */
+  public long commits() {
+    return commits;
+  }
+
+  /**
+   * Number of requests that ended up in the same store as another one, the store of {@link
+   * #close()} is not a request.
+   */
+  public synchronized long coalesced() {
+    return requests - (commits - closeCommits);
+  }
+
+  public double commitRate() {
+    return commits * 1_000_000_000.0 / Math.max(1, System.nanoTime() - start);
+  }
+
+  /** Number of messages to process again if the application restarted now. */
+  public synchronized long replayWindow() {
+    if (processedOffset < 0) {
+      return 0;
+    }
+    // nothing stored yet: everything processed so far
+    return processedOffset - (storedOffset >= 0 ? storedOffset : firstOffset - 1);
+  }
+
+  public synchronized long maxReplayWindow() {
+    return maxReplayWindow;
+  }
+
+  /**
+   * Stores the last processed offset and stops the background thread. Messages processed after are
+   * not committed.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      requestedOffset = processedOffset;
+    }
+    executor.execute(() -> commit(true));
+    executor.shutdown();
+    try {
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%,d commit(s) (%.1f/s), %,d coalesced, replay window %,d message(s) (max %,d)",
+        commits(), commitRate(), coalesced(), replayWindow(), maxReplayWindow());
+  }
+
+  /** Tells when to store the offset from what was processed since the last store. */
+  public interface Policy {
+
+    boolean shouldCommit(long messages, long bytes, long elapsedNanos);
+
+    static Policy everyMessages(long count) {
+      return (messages, bytes, elapsedNanos) -> messages >= count;
+    }
+
+    static Policy everyBytes(long count) {
+      return (messages, bytes, elapsedNanos) -> bytes >= count;
+    }
+
+    static Policy every(Duration interval) {
+      long intervalNanos = interval.toNanos();
+      return (messages, bytes, elapsedNanos) -> messages > 0 && elapsedNanos >= intervalNanos;
+    }
+
+    /** Stores the offset as soon as one of the policies says so. */
+    static Policy any(Policy... policies) {
+      return (messages, bytes, elapsedNanos) -> {
+        for (Policy policy : policies) {
+          if (policy.shouldCommit(messages, bytes, elapsedNanos)) {
+            return true;
+          }
+        }
+        return false;
+      };
+    }
+
+    /**
+     * Policy from a comma-separated list of <code>messages=</code>, <code>bytes=</code> and <code>
+     * time=</code> (in milliseconds) settings, e.g. <code>messages=10000,time=5000</code>.
+     */
+    static Policy parse(String description) {
+      String[] settings = description.split(",");
+      Policy[] policies = new Policy[settings.length];
+      for (int i = 0; i < settings.length; i++) {
+        String[] keyValue = settings[i].trim().split("=");
+        if (keyValue.length != 2) {
+          throw new IllegalArgumentException("Invalid commit policy setting: " + settings[i]);
+        }
+        long value = Long.parseLong(keyValue[1].trim());
+        switch (keyValue[0].trim()) {
+          case "messages":
+            policies[i] = everyMessages(value);
+            break;
+          case "bytes":
+            policies[i] = everyBytes(value);
+            break;
+          case "time":
+            policies[i] = every(Duration.ofMillis(value));
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown commit policy setting: " + keyValue[0]);
+        }
+      }
+      return policies.length == 1 ? policies[0] : any(policies);
+    }
+  }
+}
@@ -1,11 +1,16 @@
 package com.rabbitmq.stream;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -18,8 +23,7 @@ public class OffsetTracking {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment =
-          Environment.builder().uri("rabbitmq-stream://localhost:5552").build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
 
         log("Connected");
 
@@ -40,8 +44,7 @@ public class OffsetTracking {
                 i -> {
                   String body = i == messageCount - 1 ? "poison" : "first wave";
                   Message message =
-                      producer
-                          .messageBuilder()
+                      LatencyRecorder.stamp(producer.messageBuilder())
                           .properties()
                           .creationTime(System.currentTimeMillis())
                           .messageId(i)
@@ -65,8 +68,9 @@ public class OffsetTracking {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment =
-          Environment.builder().uri("rabbitmq-stream://localhost:5552").build()) {
+      try (StreamMetrics metrics = StreamMetrics.fromSystemProperties();
+          Environment environment = metrics.configure(Utils.environmentBuilder()).build();
+          LatencyRecorder latency = LatencyRecorder.fromSystemProperties("consumer")) {
 
         log("Connected");
 
@@ -75,6 +79,8 @@ public class OffsetTracking {
         log("Start consumer...");
         Set<String> bodies = ConcurrentHashMap.newKeySet(10);
         CountDownLatch consumeLatch = new CountDownLatch(1);
+        MessageBody.Decoder<String> bodyDecoder = MessageBody.Decoder.cachingUtf8(16);
+        MessageBody.Matcher poison = MessageBody.Matcher.equalTo("poison");
         Consumer consumer =
             environment.consumerBuilder().stream("offset-tracking-stream")
                 .offset(OffsetSpecification.first())
@@ -82,17 +88,19 @@ public class OffsetTracking {
                 .manualTrackingStrategy()
                 .builder()
                 .messageHandler(
-                    (context, message) -> {
-                      String body = new String(message.getBodyAsBinary());
-                      bodies.add(body);
-                      if (messageConsumed.incrementAndGet() % 10_000 == 0) {
-                        context.storeOffset();
-                      }
-                      if ("poison".equals(body)) {
-                        context.storeOffset();
-                        consumeLatch.countDown();
-                      }
-                    })
+                    metrics.consumer(
+                        "my-application",
+                        (context, message) -> {
+                          latency.record(message);
+                          bodies.add(MessageBody.decode(message, bodyDecoder));
+                          if (messageConsumed.incrementAndGet() % 10_000 == 0) {
+                            context.storeOffset();
+                          }
+                          if (MessageBody.matches(message, poison)) {
+                            context.storeOffset();
+                            consumeLatch.countDown();
+                          }
+                        }))
                 .build();
 
         boolean done = consumeLatch.await(60, TimeUnit.SECONDS);
@@ -111,12 +119,233 @@ public class OffsetTracking {
     }
   }
 
+  public static class ConsumeInParallel {
+
+    public static void main(String[] args) throws Exception {
+      int workers =
+          Integer.getInteger("stream.workers", Runtime.getRuntime().availableProcessors());
+      log("Connecting...");
+      try (StreamMetrics metrics = StreamMetrics.fromSystemProperties();
+          Environment environment = metrics.configure(Utils.environmentBuilder()).build();
+          LatencyRecorder latency = LatencyRecorder.fromSystemProperties("consumer")) {
+
+        log("Connected");
+
+        AtomicInteger messageConsumed = new AtomicInteger(0);
+        long start = System.currentTimeMillis();
+        log("Start consumer with %d worker(s)...", workers);
+        Set<String> bodies = ConcurrentHashMap.newKeySet(10);
+        CountDownLatch consumeLatch = new CountDownLatch(1);
+        ParallelMessageHandler messageHandler =
+            new ParallelMessageHandler(
+                workers,
+                (context, message) -> {
+                  latency.record(message);
+                  String body = new String(message.getBodyAsBinary(), StandardCharsets.UTF_8);
+                  bodies.add(body);
+                  if (messageConsumed.incrementAndGet() % 10_000 == 0) {
+                    context.storeOffset();
+                  }
+                  if ("poison".equals(body)) {
+                    context.storeOffset();
+                    consumeLatch.countDown();
+                  }
+                });
+        Consumer consumer =
+            environment.consumerBuilder().stream("offset-tracking-stream")
+                .offset(OffsetSpecification.first())
+                .name("my-application")
+                .manualTrackingStrategy()
+                .builder()
+                .messageHandler(metrics.consumer("my-application", messageHandler))
+                .build();
+
+        boolean done = consumeLatch.await(60, TimeUnit.SECONDS);
+        if (!done) {
+          log("Did not receive poison message to stop consuming");
+        }
+        messageHandler.close();
+
+        log(
+            "Consumed %,d messages in %s ms, processed offset %,d (bodies: %s)",
+            messageConsumed.get(),
+            (System.currentTimeMillis() - start),
+            messageHandler.processedOffset(),
+            bodies.stream().collect(Collectors.joining(", ")));
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class ConsumeWithCommitPolicy {
+
+    public static void main(String[] args) throws Exception {
+      OffsetCommitter.Policy policy =
+          OffsetCommitter.Policy.parse(
+              System.getProperty("stream.commit.policy", "messages=10000"));
+      log("Connecting...");
+      try (StreamMetrics metrics = StreamMetrics.fromSystemProperties();
+          Environment environment = metrics.configure(Utils.environmentBuilder()).build();
+          LatencyRecorder latency = LatencyRecorder.fromSystemProperties("consumer")) {
+
+        log("Connected");
+
+        AtomicInteger messageConsumed = new AtomicInteger(0);
+        long start = System.currentTimeMillis();
+        log("Start consumer...");
+        Set<String> bodies = ConcurrentHashMap.newKeySet(10);
+        CountDownLatch consumeLatch = new CountDownLatch(1);
+        OffsetCommitter committer = new OffsetCommitter(policy);
+        Consumer consumer =
+            environment.consumerBuilder().stream("offset-tracking-stream")
+                .offset(OffsetSpecification.first())
+                .name("my-application")
+                .manualTrackingStrategy()
+                .builder()
+                .messageHandler(
+                    metrics.consumer(
+                        "my-application",
+                        committer.wrap(
+                            (context, message) -> {
+                              latency.record(message);
+                              String body =
+                                  new String(message.getBodyAsBinary(), StandardCharsets.UTF_8);
+                              bodies.add(body);
+                              messageConsumed.incrementAndGet();
+                              if ("poison".equals(body)) {
+                                consumeLatch.countDown();
+                              }
+                            })))
+                .build();
+
+        boolean done = consumeLatch.await(60, TimeUnit.SECONDS);
+        if (!done) {
+          log("Did not receive poison message to stop consuming");
+        }
+        log("Before closing: %s", committer);
+        committer.close();
+
+        log(
+            "Consumed %,d messages in %s ms, stored offset %,d (bodies: %s)",
+            messageConsumed.get(),
+            (System.currentTimeMillis() - start),
+            committer.storedOffset(),
+            bodies.stream().collect(Collectors.joining(", ")));
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  /**
+   * Blocking handlers (<code>-Dstream.handler.latency</code> milliseconds of sleep, default is 10)
+   * with <code>-Dstream.concurrency</code> messages in process (default is 1000), on virtual
+   * threads or on a pool of as many platform threads, depending on <code>-Dstream.dispatch</code> (
+   * <code>
+   * virtual</code> or <code>pool</code>). Messages with the same ID modulo <code>-Dstream.keys
+   * </code> are processed in order.
+   */
+  public static class ConsumeBlocking {
+
+    public static void main(String[] args) throws Exception {
+      String dispatch =
+          System.getProperty("stream.dispatch", VirtualThreads.available() ? "virtual" : "pool");
+      int concurrency = Integer.getInteger("stream.concurrency", 1000);
+      long handlerLatency = Long.getLong("stream.handler.latency", 10);
+      int keys = Integer.getInteger("stream.keys", 10_000);
+      int messageCount = Integer.getInteger("stream.messages", 50_000);
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+
+        log("Connected");
+
+        AtomicInteger messageConsumed = new AtomicInteger(0);
+        AtomicInteger outOfOrder = new AtomicInteger(0);
+        Map<Long, Long> lastIds = new ConcurrentHashMap<>();
+        CountDownLatch consumeLatch = new CountDownLatch(1);
+        Function<Message, Object> keyExtractor =
+            message -> ((Number) message.getProperties().getMessageId()).longValue() % keys;
+        MessageHandler blockingHandler =
+            (context, message) -> {
+              long id = ((Number) message.getProperties().getMessageId()).longValue();
+              Long previous = lastIds.put(id % keys, id);
+              if (previous != null && previous > id) {
+                outOfOrder.incrementAndGet();
+              }
+              try {
+                Thread.sleep(handlerLatency);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              if (messageConsumed.incrementAndGet() == messageCount) {
+                consumeLatch.countDown();
+              }
+            };
+        AutoCloseable closeable;
+        MessageHandler messageHandler;
+        LongSupplier processedOffset;
+        if ("virtual".equals(dispatch)) {
+          ExecutorMessageHandler handler =
+              new ExecutorMessageHandler(
+                  VirtualThreads.newThreadPerTaskExecutor("blocking-handler-"),
+                  keyExtractor,
+                  concurrency,
+                  10_000,
+                  blockingHandler);
+          messageHandler = handler;
+          closeable = handler;
+          processedOffset = handler::processedOffset;
+        } else {
+          ParallelMessageHandler handler =
+              new ParallelMessageHandler(
+                  concurrency, keyExtractor, concurrency, 10_000, blockingHandler);
+          messageHandler = handler;
+          closeable = handler;
+          processedOffset = handler::processedOffset;
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.currentTimeMillis();
+        log(
+            "Start consumer, %s dispatch, %,d message(s) in process, %d ms by message...",
+            dispatch, concurrency, handlerLatency);
+        Consumer consumer =
+            environment.consumerBuilder().stream("offset-tracking-stream")
+                .offset(OffsetSpecification.first())
+                .name("blocking-application")
+                .manualTrackingStrategy()
+                .builder()
+                .messageHandler(messageHandler)
+                .build();
+
+        boolean done = consumeLatch.await(10, TimeUnit.MINUTES);
+        if (!done) {
+          log("Did not process %,d messages", messageCount);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        closeable.close();
+
+        log(
+            "Processed %,d messages in %,d ms (%,d msg/s), %,d out of order, "
+                + "peak of %,d platform threads, processed offset %,d",
+            messageConsumed.get(),
+            elapsed,
+            messageConsumed.get() * 1000L / Math.max(1, elapsed),
+            outOfOrder.get(),
+            threads.getPeakThreadCount(),
+            processedOffset.getAsLong());
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
   public static class PublishSecondWave {
 
     public static void main(String[] args) throws Exception {
       log("Connecting...");
-      try (Environment environment =
-          Environment.builder().uri("rabbitmq-stream://localhost:5552").build()) {
+      try (Environment environment = Utils.environmentBuilder().build()) {
 
         log("Connected");
 
@@ -133,8 +362,7 @@ public class OffsetTracking {
                 i -> {
                   String body = i == messageCount - 1 ? "poison" : "second wave";
                   Message message =
-                      producer
-                          .messageBuilder()
+                      LatencyRecorder.stamp(producer.messageBuilder())
                           .properties()
                           .creationTime(System.currentTimeMillis())
                           .messageId(i)
@@ -0,0 +1,137 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.stream.ProcessedOffsets.Task;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Message handler that processes messages on a pool of worker threads and stores only the offset
+ * that all the messages before it have been processed.
+ *
+ * <p>Messages are dispatched round-robin to the workers, or by key when a key extractor is set:
+ * messages with the same key go to the same worker and keep their order. {@link
+ * MessageHandler.Context#storeOffset()} is safe to call from the delegate handler: the offset is
+ * stored once it and all the previous offsets are processed. At most {@code capacity} messages are
+ * in process, dispatching blocks when they are all taken, which slows down the subscription.
+ *
+ * <p>{@link #close()} waits for the messages in process and stores the last processed offset, it
+ * must be called before closing the consumer. Messages dispatched after are ignored.
+ */
+public class ParallelMessageHandler implements MessageHandler, AutoCloseable {
+
+  private static final Task STOP = new Task(null, -1, null, -1);
+
+  private final MessageHandler delegate;
+  private final Function<Message, ?> keyExtractor;
+  private final Worker[] workers;
+  private final ProcessedOffsets offsets;
+
+  static void log(String format, Object... arguments) {
+    System.out.println(String.format(format, arguments));
+  }
+
+  public ParallelMessageHandler(int workerCount, MessageHandler delegate) {
+    this(workerCount, null, 10_000, 0, delegate);
+  }
+
+  public ParallelMessageHandler(
+      int workerCount, Function<Message, ?> keyExtractor, MessageHandler delegate) {
+    this(workerCount, keyExtractor, 10_000, 0, delegate);
+  }
+
+  /**
+   * @param storeEvery stores the processed offset every {@code storeEvery} messages, 0 to store
+   *     only when the delegate asks
+   */
+  public ParallelMessageHandler(
+      int workerCount,
+      Function<Message, ?> keyExtractor,
+      int capacity,
+      int storeEvery,
+      MessageHandler delegate) {
+    this.delegate = delegate;
+    this.keyExtractor = keyExtractor;
+    this.offsets = new ProcessedOffsets(capacity, storeEvery);
+    this.workers = new Worker[workerCount];
+    for (int i = 0; i < workerCount; i++) {
+      this.workers[i] = new Worker(i, capacity);
+      this.workers[i].start();
+    }
+  }
+
+  @Override
+  public void handle(Context context, Message message) {
+    long sequence = offsets.register(context);
+    if (sequence < 0) {
+      return;
+    }
+    int worker;
+    if (keyExtractor == null) {
+      worker = (int) (sequence % workers.length);
+    } else {
+      Object key = keyExtractor.apply(message);
+      worker = key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % workers.length;
+    }
+    try {
+      workers[worker].tasks.put(new Task(context.consumer(), context.offset(), message, sequence));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** The offset that all the messages before it have been processed, -1 if none. */
+  public long processedOffset() {
+    return offsets.processedOffset();
+  }
+
+  @Override
+  public void close() {
+    offsets.close();
+    try {
+      for (Worker worker : workers) {
+        worker.tasks.put(STOP);
+      }
+      for (Worker worker : workers) {
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+      }
+    } catch (InterruptedException e) {
+      // stores what has been processed so far
+      Thread.currentThread().interrupt();
+    }
+    offsets.store();
+  }
+
+  private class Worker extends Thread {
+
+    private final BlockingQueue<Task> tasks;
+
+    private Worker(int index, int capacity) {
+      super("parallel-message-handler-" + index);
+      setDaemon(true);
+      this.tasks = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Task task = tasks.take();
+          if (task == STOP) {
+            return;
+          }
+          try {
+            delegate.handle(task, task.message);
+          } catch (Exception e) {
+            // same as the client: the message counts as processed
+            log("Error while processing message at offset %d: %s", task.offset, e.getMessage());
+          }
+          offsets.processed(task);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
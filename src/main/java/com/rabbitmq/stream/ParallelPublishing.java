@@ -0,0 +1,201 @@
+package com.rabbitmq.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Publishes a range of messages with several producers, on several threads and connections.
+ *
+ * <p>Settings: <code>-Dstream.producers</code> (default is the number of cores), <code>
+ * -Dstream.producers.by.connection</code> (default is 1) and <code>-Dstream.messages</code> (total
+ * number of messages, default is 1,000,000).
+ */
+public class ParallelPublishing {
+
+  static final String STREAM = "parallel-publishing-stream";
+
+  static void log(String format, Object... arguments) {
+    System.out.println(String.format(format, arguments));
+  }
+
+  public static class Publish {
+
+    public static void main(String[] args) throws Exception {
+      int producerCount =
+          Integer.getInteger("stream.producers", Runtime.getRuntime().availableProcessors());
+      int producersByConnection = Integer.getInteger("stream.producers.by.connection", 1);
+      int messageCount = Integer.getInteger("stream.messages", 1_000_000);
+      log("Connecting...");
+      try (Environment environment =
+          Utils.environmentBuilder().maxProducersByConnection(producersByConnection).build()) {
+
+        log("Connected");
+
+        log("Creating stream...");
+        environment.streamCreator().stream(STREAM).create();
+        log("Stream created");
+
+        log(
+            "Sending %,d messages with %d producer(s), %d producer(s) by connection",
+            messageCount, producerCount, producersByConnection);
+        Result result = publish(environment, STREAM, producerCount, messageCount);
+        for (int i = 0; i < result.publishers.size(); i++) {
+          Publisher publisher = result.publishers.get(i);
+          log(
+              "Producer %d: %,d confirmed, %,d failed, %,d msg/s",
+              i, publisher.confirmed.get(), publisher.failed.get(), publisher.rate());
+        }
+        log(
+            "All messages confirmed? %s (%d ms, %,d msg/s, confirm latency %s)",
+            result.done ? "yes" : "no",
+            TimeUnit.NANOSECONDS.toMillis(result.durationInNanos),
+            result.rate(),
+            result.latencySummary());
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class Scaling {
+
+    public static void main(String[] args) throws Exception {
+      int maxProducers =
+          Integer.getInteger("stream.producers", Runtime.getRuntime().availableProcessors());
+      int producersByConnection = Integer.getInteger("stream.producers.by.connection", 1);
+      int messageCount = Integer.getInteger("stream.messages", 1_000_000);
+      log("Connecting...");
+      try (Environment environment =
+          Utils.environmentBuilder().maxProducersByConnection(producersByConnection).build()) {
+
+        log("Connected");
+
+        log("%9s %12s %10s %10s %10s", "producers", "msg/s", "p50 (ms)", "p99 (ms)", "max (ms)");
+        List<Integer> producerCounts = new ArrayList<>();
+        for (int producerCount = 1; producerCount < maxProducers; producerCount *= 2) {
+          producerCounts.add(producerCount);
+        }
+        producerCounts.add(maxProducers);
+        for (int producerCount : producerCounts) {
+          String stream = STREAM + "-" + producerCount;
+          environment.streamCreator().stream(stream).create();
+          Result result = publish(environment, stream, producerCount, messageCount);
+          environment.deleteStream(stream);
+          log(
+              "%9d %,12d %10.2f %10.2f %10.2f",
+              producerCount,
+              result.rate(),
+              result.latency.getValueAtPercentile(50) / 1_000_000.0,
+              result.latency.getValueAtPercentile(99) / 1_000_000.0,
+              result.latency.getMaxValue() / 1_000_000.0);
+        }
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  static Result publish(Environment environment, String stream, int producerCount, int messageCount)
+      throws InterruptedException {
+    List<Publisher> publishers = new ArrayList<>(producerCount);
+    for (int i = 0; i < producerCount; i++) {
+      publishers.add(
+          new Publisher(
+              environment.producerBuilder().stream(stream).build(),
+              (int) ((long) messageCount * i / producerCount),
+              (int) ((long) messageCount * (i + 1) / producerCount)));
+    }
+    ExecutorService executorService = Executors.newFixedThreadPool(producerCount);
+    try {
+      long start = System.nanoTime();
+      publishers.forEach(publisher -> publisher.start = start);
+      publishers.forEach(executorService::execute);
+      boolean done = true;
+      for (Publisher publisher : publishers) {
+        done = publisher.confirmLatch.await(1, TimeUnit.MINUTES) && done;
+      }
+      long duration = System.nanoTime() - start;
+      Histogram latency = new Histogram(3);
+      publishers.forEach(publisher -> latency.add(publisher.latency.getIntervalHistogram()));
+      return new Result(publishers, done, duration, messageCount, latency);
+    } finally {
+      executorService.shutdownNow();
+      publishers.forEach(publisher -> publisher.producer.close());
+    }
+  }
+
+  static class Publisher implements Runnable {
+
+    private final Producer producer;
+    private final int from, to;
+    private final CountDownLatch confirmLatch;
+    private final AtomicLong confirmed = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final Recorder latency = new Recorder(3);
+    private volatile long start, end;
+
+    Publisher(Producer producer, int from, int to) {
+      this.producer = producer;
+      this.from = from;
+      this.to = to;
+      this.confirmLatch = new CountDownLatch(to - from);
+    }
+
+    @Override
+    public void run() {
+      byte[] body = "hello world".getBytes(StandardCharsets.UTF_8);
+      for (int i = from; i < to; i++) {
+        Message message =
+            LatencyRecorder.stamp(producer.messageBuilder())
+                .properties()
+                .creationTime(System.currentTimeMillis())
+                .messageId(i)
+                .messageBuilder()
+                .addData(body)
+                .build();
+        long sent = System.nanoTime();
+        producer.send(
+            message,
+            confirmationStatus -> {
+              long now = System.nanoTime();
+              latency.recordValue(now - sent);
+              if (confirmationStatus.isConfirmed()) {
+                confirmed.incrementAndGet();
+              } else {
+                failed.incrementAndGet();
+              }
+              end = now;
+              confirmLatch.countDown();
+            });
+      }
+    }
+
+    long rate() {
+      long duration = end - start;
+      return duration <= 0 ? 0 : (to - from) * 1_000_000_000L / duration;
+    }
+  }
+
+  static class Result extends PublishResult {
+
+    private final List<Publisher> publishers;
+
+    Result(
+        List<Publisher> publishers,
+        boolean done,
+        long durationInNanos,
+        int messageCount,
+        Histogram latency) {
+      super(done, durationInNanos, messageCount, latency);
+      this.publishers = publishers;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.rabbitmq.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Regional events over partition streams instead of a single "world" stream.
+ *
+ * <p>With <code>-Dstream.routing=key</code> (the default) there is a stream for each region (<code>
+ * events-amer</code>, <code>events-emea</code>, <code>events-apac</code>) and messages go to the
+ * stream of their region. With <code>-Dstream.routing=hash</code> there are <code>
+ * -Dstream.partitions</code> streams (default is 3) and messages are spread by the hash of their
+ * ID.
+ */
+public class PartitionedStreams {
+
+  private static final String[] REGIONS = new String[] {"amer", "emea", "apac"};
+
+  static void log(String format, Object... arguments) {
+    System.out.println(String.format(format, arguments));
+  }
+
+  static boolean hashRouting() {
+    return "hash".equals(System.getProperty("stream.routing", "key"));
+  }
+
+  static List<String> partitions() {
+    List<String> partitions = new ArrayList<>();
+    if (hashRouting()) {
+      int partitionCount = Integer.getInteger("stream.partitions", 3);
+      for (int i = 0; i < partitionCount; i++) {
+        partitions.add("events-" + i);
+      }
+    } else {
+      for (String region : REGIONS) {
+        partitions.add("events-" + region);
+      }
+    }
+    return partitions;
+  }
+
+  public static class CreateTopology {
+
+    public static void main(String[] args) throws Exception {
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+        log("Connected");
+        for (String partition : partitions()) {
+          log("Creating '%s' stream...", partition);
+          environment.streamCreator().stream(partition).create();
+        }
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class Publish {
+
+    public static void main(String[] args) throws Exception {
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+        log("Connected");
+
+        log("Creating routing producer...");
+        RoutingProducer producer;
+        if (hashRouting()) {
+          producer =
+              RoutingProducer.hashRouting(
+                  environment,
+                  partitions(),
+                  message -> String.valueOf(message.getProperties().getMessageId()));
+        } else {
+          Map<String, String> bindings = new LinkedHashMap<>();
+          for (String region : REGIONS) {
+            bindings.put(region, "events-" + region);
+          }
+          producer =
+              RoutingProducer.keyRouting(
+                  environment,
+                  bindings,
+                  message -> (String) message.getApplicationProperties().get("region"));
+        }
+        log("Routing producer created, partitions %s", producer.partitions());
+
+        int messageCount = 100_000;
+        CountDownLatch confirmLatch =
+            new CountDownLatch(messageCount + producer.partitions().size());
+        AtomicInteger failed = new AtomicInteger(0);
+        ConfirmationHandler confirmationHandler =
+            confirmationStatus -> {
+              if (!confirmationStatus.isConfirmed()) {
+                failed.incrementAndGet();
+              }
+              confirmLatch.countDown();
+            };
+        long start = System.currentTimeMillis();
+        log("Sending %,d messages", messageCount);
+        for (int i = 0; i < messageCount; i++) {
+          Message message =
+              LatencyRecorder.stamp(producer.messageBuilder())
+                  .properties()
+                  .messageId(i)
+                  .creationTime(System.currentTimeMillis())
+                  .contentType("text/plain")
+                  .messageBuilder()
+                  .applicationProperties()
+                  .entry("region", REGIONS[i % REGIONS.length])
+                  .messageBuilder()
+                  .addData(("message " + i).getBytes(StandardCharsets.UTF_8))
+                  .build();
+          producer.send(message, confirmationHandler);
+        }
+        producer.broadcast(
+            producer.messageBuilder().addData("poison".getBytes(StandardCharsets.UTF_8)).build(),
+            confirmationHandler);
+        log("Messages sent, waiting for confirmation...");
+        boolean done = confirmLatch.await(1, TimeUnit.MINUTES);
+        log(
+            "All messages confirmed? %s (%d ms, %d failed)",
+            done ? "yes" : "no", (System.currentTimeMillis() - start), failed.get());
+        producer.close();
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class Consume {
+
+    public static void main(String[] args) throws Exception {
+      log("Connecting...");
+      List<String> partitions = partitions();
+      // one connection for each consumer, so partitions are dispatched in parallel
+      try (Environment environment =
+              Utils.environmentBuilder().maxConsumersByConnection(1).build();
+          LatencyRecorder latency = LatencyRecorder.fromSystemProperties("consumer")) {
+
+        log("Connected");
+
+        CountDownLatch latch = new CountDownLatch(partitions.size());
+        Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+        long start = System.currentTimeMillis();
+        log("Start consumers...");
+        List<Consumer> consumers = new ArrayList<>();
+        for (String partition : partitions) {
+          AtomicInteger count = new AtomicInteger(0);
+          counts.put(partition, count);
+          consumers.add(
+              environment.consumerBuilder().stream(partition)
+                  .offset(OffsetSpecification.first())
+                  .messageHandler(
+                      (context, message) -> {
+                        if ("poison"
+                            .equals(
+                                new String(message.getBodyAsBinary(), StandardCharsets.UTF_8))) {
+                          latch.countDown();
+                        } else {
+                          latency.record(message);
+                          count.incrementAndGet();
+                        }
+                      })
+                  .build());
+        }
+
+        boolean done = latch.await(60, TimeUnit.SECONDS);
+        for (String partition : partitions) {
+          log("Partition '%s': %,d messages", partition, counts.get(partition).get());
+        }
+        log(
+            "%s in %d ms",
+            done ? "Received poison message on all partitions" : "Stopping consuming",
+            System.currentTimeMillis() - start);
+        consumers.forEach(Consumer::close);
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package com.rabbitmq.stream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Offsets of the messages in process by a consumer, to store only the offset that all the messages
+ * before it have been processed, whatever the order they complete in.
+ *
+ * <p>At most {@code capacity} messages are in process, {@link #register(MessageHandler.Context)}
+ * blocks when they are all taken, which slows down the subscription. Once closed, messages are not
+ * registered anymore, so they are processed again by the next consumer.
+ */
+class ProcessedOffsets {
+
+  private final int capacity;
+  private final long[] offsets;
+  private final boolean[] processed;
+  private final int storeEvery;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private volatile Consumer consumer;
+
+  // guarded by lock
+  private long head = 0, tail = 0;
+  private long processedOffset = -1, storedOffset = -1, requestedOffset = -1;
+  private int processedSinceStore = 0;
+  private boolean closed = false;
+
+  /**
+   * @param storeEvery stores the processed offset every {@code storeEvery} messages, 0 to store
+   *     only when a handler asks
+   */
+  ProcessedOffsets(int capacity, int storeEvery) {
+    this.capacity = capacity;
+    this.offsets = new long[capacity];
+    this.processed = new boolean[capacity];
+    this.storeEvery = storeEvery;
+  }
+
+  /**
+   * Registers the message in process, returns its sequence, or -1 if closed. Messages must come in
+   * offset order.
+   */
+  long register(MessageHandler.Context context) {
+    long sequence;
+    lock.lock();
+    try {
+      while (tail - head == capacity && !closed) {
+        notFull.awaitUninterruptibly();
+      }
+      if (closed) {
+        return -1;
+      }
+      sequence = tail++;
+      int index = (int) (sequence % capacity);
+      offsets[index] = context.offset();
+      processed[index] = false;
+    } finally {
+      lock.unlock();
+    }
+    this.consumer = context.consumer();
+    return sequence;
+  }
+
+  /** The offset that all the messages before it have been processed, -1 if none. */
+  long processedOffset() {
+    lock.lock();
+    try {
+      return processedOffset;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void processed(Task task) {
+    lock.lock();
+    try {
+      processed[(int) (task.sequence % capacity)] = true;
+      if (task.storeRequested) {
+        requestedOffset = Math.max(requestedOffset, task.offset);
+      }
+      int count = 0;
+      while (head < tail && processed[(int) (head % capacity)]) {
+        processedOffset = offsets[(int) (head % capacity)];
+        head++;
+        count++;
+      }
+      if (count > 0) {
+        notFull.signalAll();
+        processedSinceStore += count;
+        if ((requestedOffset >= 0 && processedOffset >= requestedOffset)
+            || (storeEvery > 0 && processedSinceStore >= storeEvery)) {
+          store(task.consumer);
+          requestedOffset = -1;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Stops registering messages, a dispatching thread waiting for room gives up. */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Waits until all the registered messages are processed, returns false on timeout. */
+  boolean awaitProcessed(long timeoutInMs) throws InterruptedException {
+    long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+    lock.lock();
+    try {
+      while (head < tail) {
+        if (remaining <= 0) {
+          return false;
+        }
+        remaining = notFull.awaitNanos(remaining);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Stores the processed offset if it has not been stored yet. */
+  void store() {
+    lock.lock();
+    try {
+      if (consumer != null) {
+        store(consumer);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void store(Consumer consumer) {
+    if (processedOffset > storedOffset) {
+      consumer.store(processedOffset);
+      storedOffset = processedOffset;
+      processedSinceStore = 0;
+    }
+  }
+
+  /** A message in process, it is the context of the delegate handler. */
+  static class Task implements MessageHandler.Context {
+
+    final Consumer consumer;
+    final long offset;
+    final Message message;
+    final long sequence;
+    private boolean storeRequested = false;
+
+    Task(Consumer consumer, long offset, Message message, long sequence) {
+      this.consumer = consumer;
+      this.offset = offset;
+      this.message = message;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public long offset() {
+      return offset;
+    }
+
+    @Override
+    public void storeOffset() {
+      this.storeRequested = true;
+    }
+
+    @Override
+    public Consumer consumer() {
+      return consumer;
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.rabbitmq.stream;
+
+import org.HdrHistogram.Histogram;
+
+/** Outcome of a publishing run: whether all messages were confirmed, throughput and latency. */
+class PublishResult {
+
+  final boolean done;
+  final long durationInNanos;
+  final int messageCount;
+  final Histogram latency;
+
+  PublishResult(boolean done, long durationInNanos, int messageCount, Histogram latency) {
+    this.done = done;
+    this.durationInNanos = durationInNanos;
+    this.messageCount = messageCount;
+    this.latency = latency;
+  }
+
+  /** Messages per second. */
+  long rate() {
+    return messageCount * 1_000_000_000L / Math.max(1, durationInNanos);
+  }
+
+  String latencySummary() {
+    return LatencyRecorder.summary(latency);
+  }
+}
@@ -0,0 +1,177 @@
+package com.rabbitmq.stream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Last confirmed publishing ID of named producers, in a memory-mapped file.
+ *
+ * <p>The file has fixed-size slots, one for each producer name. Confirmations update the slot
+ * without locking, with a plain write to the mapped memory, so the value survives a crash of the
+ * application (not of the operating system). Applications can read where to resume before
+ * connecting, and {@link Entry#reconcile(Producer)} checks the value against the broker once the
+ * producer is created.
+ */
+public class PublishingIdCheckpoint implements AutoCloseable {
+
+  private static final int SLOT_SIZE = 64;
+  private static final int MAX_NAME_LENGTH = SLOT_SIZE - 2 - 8;
+  private static final int VALUE_INDEX = SLOT_SIZE - 8;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int slotCount;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private int usedSlots = 0;
+
+  private PublishingIdCheckpoint(FileChannel channel, MappedByteBuffer buffer) {
+    this.channel = channel;
+    this.buffer = buffer;
+    this.slotCount = buffer.capacity() / SLOT_SIZE;
+    for (int slot = 0; slot < slotCount; slot++) {
+      int index = slot * SLOT_SIZE;
+      if (buffer.get(index) == 0) {
+        break;
+      }
+      byte[] name = new byte[buffer.get(index + 1)];
+      for (int i = 0; i < name.length; i++) {
+        name[i] = buffer.get(index + 2 + i);
+      }
+      Entry entry = new Entry(index, buffer.getLong(index + VALUE_INDEX));
+      entries.put(new String(name, StandardCharsets.UTF_8), entry);
+      usedSlots++;
+    }
+  }
+
+  public static PublishingIdCheckpoint open(Path file) {
+    return open(file, 1024);
+  }
+
+  /** Opens or creates the file, {@code slotCount} is ignored if the file exists. */
+  public static PublishingIdCheckpoint open(Path file, int slotCount) {
+    try {
+      if (file.toAbsolutePath().getParent() != null) {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+      }
+      FileChannel channel =
+          FileChannel.open(
+              file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      long size = channel.size() == 0 ? (long) slotCount * SLOT_SIZE : channel.size();
+      return new PublishingIdCheckpoint(
+          channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** The entry of a producer, created on first access. */
+  public Entry entry(String producerName) {
+    Entry entry = entries.get(producerName);
+    return entry == null ? createEntry(producerName) : entry;
+  }
+
+  private synchronized Entry createEntry(String producerName) {
+    Entry entry = entries.get(producerName);
+    if (entry == null) {
+      byte[] name = producerName.getBytes(StandardCharsets.UTF_8);
+      if (name.length > MAX_NAME_LENGTH) {
+        throw new IllegalArgumentException(
+            "Producer name cannot be longer than " + MAX_NAME_LENGTH + " bytes: " + producerName);
+      }
+      if (usedSlots == slotCount) {
+        throw new IllegalStateException("No slot left in checkpoint file");
+      }
+      int index = usedSlots * SLOT_SIZE;
+      buffer.put(index + 1, (byte) name.length);
+      for (int i = 0; i < name.length; i++) {
+        buffer.put(index + 2 + i, name[i]);
+      }
+      buffer.putLong(index + VALUE_INDEX, -1);
+      // the slot is used once it is complete
+      buffer.put(index, (byte) 1);
+      usedSlots++;
+      entry = new Entry(index, -1);
+      entries.put(producerName, entry);
+    }
+    return entry;
+  }
+
+  /** Flushes the file to the storage device and closes it. */
+  @Override
+  public void close() {
+    try {
+      buffer.force();
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public class Entry {
+
+    private final int index;
+    private final AtomicLong lastPublishingId;
+
+    private Entry(int index, long lastPublishingId) {
+      this.index = index;
+      this.lastPublishingId = new AtomicLong(lastPublishingId);
+    }
+
+    /** The last confirmed publishing ID, -1 if none. */
+    public long lastPublishingId() {
+      return lastPublishingId.get();
+    }
+
+    public void confirmed(ConfirmationStatus confirmationStatus) {
+      if (confirmationStatus.isConfirmed() && confirmationStatus.getMessage().hasPublishingId()) {
+        confirmed(confirmationStatus.getMessage().getPublishingId());
+      }
+    }
+
+    public void confirmed(long publishingId) {
+      long current;
+      do {
+        current = lastPublishingId.get();
+        if (publishingId <= current) {
+          return;
+        }
+      } while (!lastPublishingId.compareAndSet(current, publishingId));
+      write();
+    }
+
+    /**
+     * Aligns the entry with the broker: the broker value wins, it is ahead when the application
+     * stopped before getting the last confirmations, behind when the stream has been re-created.
+     *
+     * @return the last publishing ID, -1 if none
+     */
+    public long reconcile(Producer producer) {
+      long brokerValue = producer.getLastPublishingId();
+      // 0 also means "no publishing ID", re-sending ID 0 is harmless with deduplication
+      if (brokerValue == 0) {
+        brokerValue = -1;
+      }
+      lastPublishingId.set(brokerValue);
+      write();
+      return brokerValue;
+    }
+
+    private void write() {
+      // concurrent writers may interleave, the last one writes again until the values match
+      long value;
+      do {
+        value = lastPublishingId.get();
+        buffer.putLong(index + VALUE_INDEX, value);
+      } while (value != lastPublishingId.get());
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.LongString;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the messages of an AMQP 0.9.1 queue to a stream.
+ *
+ * <p>Messages are consumed with a prefetch window and republished with a named producer, so the
+ * broker deduplicates them. The publishing ID of a message is derived from its delivery order: the
+ * last publishing ID acknowledged upstream, stored in a {@link PublishingIdCheckpoint}, plus the
+ * delivery tag. Upstream messages are acknowledged only once the stream confirmed them, with the
+ * <code>multiple</code> flag, in batches of a quarter of the prefetch window. The checkpoint is
+ * updated before the acknowledgment, so a crash in between causes duplicates, never losses, and a
+ * crash after stream confirms but before the acknowledgment causes neither: the redelivered
+ * messages get the same publishing IDs and the broker drops them.
+ *
+ * <p>This relies on the queue redelivering unacknowledged messages in their original order, which
+ * is the case with a single consumer, and on a dedicated channel, whose delivery tags start at 1. A
+ * failed stream confirm closes the channel, so all unacknowledged messages go back to the queue and
+ * the bridge can be restarted. Messages after the failed one may be in the stream already, so the
+ * bridge stops acknowledging and moves the checkpoint past all the IDs it used before closing the
+ * channel: the redelivered messages get new IDs, the failed one is not dropped, the ones already in
+ * the stream are duplicated.
+ */
+public class QueueToStreamBridge implements AutoCloseable {
+
+  private final Channel channel;
+  private final String queue;
+  private final Producer producer;
+  private final PublishingIdCheckpoint.Entry checkpoint;
+  private final long base;
+  private final int ackEvery;
+  // delivery tags confirmed by the stream after a gap
+  private final Set<Long> confirmed = new HashSet<>();
+  private final AtomicLong delivered = new AtomicLong(0);
+  private final AtomicLong acked = new AtomicLong(0);
+  private final AtomicLong failed = new AtomicLong(0);
+  private volatile long lastDeliveryTime = System.nanoTime();
+  private long contiguousTag = 0;
+  private long lastAckedTag = 0;
+  private volatile boolean stopped = false;
+  private String consumerTag;
+
+  /**
+   * The producer must be named, with enough unconfirmed messages for the prefetch window, and the
+   * checkpoint entry must be dedicated to this queue and producer.
+   */
+  public QueueToStreamBridge(
+      Channel channel,
+      String queue,
+      int prefetch,
+      Producer producer,
+      PublishingIdCheckpoint.Entry checkpoint) {
+    this.channel = channel;
+    this.queue = queue;
+    this.producer = producer;
+    this.checkpoint = checkpoint;
+    this.base = checkpoint.lastPublishingId();
+    this.ackEvery = Math.max(1, prefetch / 4);
+    try {
+      channel.basicQos(prefetch);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public QueueToStreamBridge start() {
+    try {
+      consumerTag =
+          channel.basicConsume(
+              queue,
+              false,
+              new DefaultConsumer(channel) {
+                @Override
+                public void handleDelivery(
+                    String consumerTag,
+                    Envelope envelope,
+                    AMQP.BasicProperties properties,
+                    byte[] body) {
+                  forward(envelope, properties, body);
+                }
+              });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return this;
+  }
+
+  private void forward(Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+    long deliveryTag = envelope.getDeliveryTag();
+    delivered.incrementAndGet();
+    lastDeliveryTime = System.nanoTime();
+    if (stopped) {
+      // after a failed confirm, the message goes back to the queue with the channel
+      return;
+    }
+    MessageBuilder builder = producer.messageBuilder().publishingId(base + deliveryTag);
+    if (properties != null) {
+      copy(properties, builder);
+    }
+    builder
+        .messageAnnotations()
+        .entry("x-exchange", envelope.getExchange())
+        .entry("x-routing-key", envelope.getRoutingKey());
+    // blocks when the producer reaches its maximum of unconfirmed messages
+    producer.send(
+        builder.addData(body).build(),
+        confirmationStatus -> {
+          if (confirmationStatus.isConfirmed()) {
+            confirmed(deliveryTag);
+          } else {
+            stop();
+          }
+        });
+  }
+
+  private synchronized void stop() {
+    failed.incrementAndGet();
+    if (stopped) {
+      return;
+    }
+    stopped = true;
+    // deliveries that passed the check of the flag are counted, so no ID of this bridge is above,
+    // the restarted bridge then gives new IDs to the messages after the failed one
+    checkpoint.confirmed(base + delivered.get());
+    try {
+      channel.abort();
+    } catch (IOException e) {
+      // closing anyway
+    }
+  }
+
+  private static void copy(AMQP.BasicProperties properties, MessageBuilder builder) {
+    MessageBuilder.PropertiesBuilder target = builder.properties();
+    if (properties.getMessageId() != null) {
+      target.messageId(properties.getMessageId());
+    }
+    if (properties.getCorrelationId() != null) {
+      target.correlationId(properties.getCorrelationId());
+    }
+    if (properties.getContentType() != null) {
+      target.contentType(properties.getContentType());
+    }
+    if (properties.getContentEncoding() != null) {
+      target.contentEncoding(properties.getContentEncoding());
+    }
+    if (properties.getReplyTo() != null) {
+      target.replyTo(properties.getReplyTo());
+    }
+    if (properties.getTimestamp() != null) {
+      target.creationTime(properties.getTimestamp().getTime());
+    }
+    if (properties.getHeaders() != null && !properties.getHeaders().isEmpty()) {
+      MessageBuilder.ApplicationPropertiesBuilder applicationProperties =
+          builder.applicationProperties();
+      for (Map.Entry<String, Object> header : properties.getHeaders().entrySet()) {
+        Object value = header.getValue();
+        if (value instanceof LongString || value instanceof String) {
+          applicationProperties.entry(header.getKey(), value.toString());
+        } else if (value instanceof Integer) {
+          applicationProperties.entry(header.getKey(), (int) value);
+        } else if (value instanceof Long) {
+          applicationProperties.entry(header.getKey(), (long) value);
+        } else if (value instanceof Boolean) {
+          applicationProperties.entry(header.getKey(), (boolean) value);
+        } else if (value instanceof Double) {
+          applicationProperties.entry(header.getKey(), (double) value);
+        }
+        // other header types (tables, arrays, decimals) are not copied
+      }
+    }
+  }
+
+  private synchronized void confirmed(long deliveryTag) {
+    if (stopped) {
+      // the channel is closed, the messages are redelivered
+      return;
+    }
+    confirmed.add(deliveryTag);
+    while (confirmed.remove(contiguousTag + 1)) {
+      contiguousTag++;
+    }
+    // the queue may be idle when all the delivered messages are confirmed
+    boolean caughtUp = contiguousTag == delivered.get();
+    if (contiguousTag > lastAckedTag && (contiguousTag - lastAckedTag >= ackEvery || caughtUp)) {
+      checkpoint.confirmed(base + contiguousTag);
+      try {
+        channel.basicAck(contiguousTag, true);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      acked.addAndGet(contiguousTag - lastAckedTag);
+      lastAckedTag = contiguousTag;
+    }
+  }
+
+  /** Publishing ID of the first message the bridge moves. */
+  public long firstPublishingId() {
+    return base + 1;
+  }
+
+  public long delivered() {
+    return delivered.get();
+  }
+
+  /** Number of upstream messages acknowledged after their stream confirm. */
+  public long acked() {
+    return acked.get();
+  }
+
+  public long failed() {
+    return failed.get();
+  }
+
+  /** Nanoseconds since the last delivery. */
+  public long idleTime() {
+    return System.nanoTime() - lastDeliveryTime;
+  }
+
+  /**
+   * Stops consuming, messages not acknowledged yet go back to the queue when the channel closes.
+   */
+  @Override
+  public void close() {
+    if (consumerTag != null && channel.isOpen()) {
+      try {
+        channel.basicCancel(consumerTag);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
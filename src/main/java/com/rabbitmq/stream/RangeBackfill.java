@@ -0,0 +1,319 @@
+package com.rabbitmq.stream;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the offset range of a stream with several consumers in parallel, one for each chunk of the
+ * range, and merges their results.
+ *
+ * <p>{@link #discover(Environment, String, Duration)} finds the current first and last offsets of
+ * the stream, {@link #split(long, long, int)} cuts this range into chunks, and {@link #run()}
+ * starts a consumer at the beginning of each chunk, that stops at its end. Each consumer maps its
+ * messages with the {@link Mapper} in parallel (e.g. decoding, parsing) and puts the results in a
+ * bounded queue for its chunk, a consumer waits when its queue is full. The merge step is the
+ * calling thread, it gives the results to the {@link Sink} either in offset order (chunk after
+ * chunk) or as they come. The sink is always called from the same thread.
+ *
+ * <p>Consumers run in parallel only if they do not share a connection, use an environment with
+ * {@link EnvironmentBuilder#maxConsumersByConnection(int)} set to 1.
+ */
+public class RangeBackfill<T> {
+
+  private final Environment environment;
+  private final String stream;
+  private final List<Range> chunks;
+  private final Mapper<T> mapper;
+  private final Sink<T> sink;
+  private final boolean ordered;
+  private final int queueCapacity;
+  private final Duration timeout;
+
+  public RangeBackfill(
+      Environment environment,
+      String stream,
+      List<Range> chunks,
+      Mapper<T> mapper,
+      Sink<T> sink,
+      boolean ordered,
+      int queueCapacity,
+      Duration timeout) {
+    this.environment = environment;
+    this.stream = stream;
+    this.chunks = chunks;
+    this.mapper = mapper;
+    this.sink = sink;
+    this.ordered = ordered;
+    this.queueCapacity = queueCapacity;
+    this.timeout = timeout;
+  }
+
+  /**
+   * First and last offsets of the stream, null if the stream is empty. The last offset is the last
+   * one of the last chunk when it is read, messages published after are not in the range.
+   */
+  public static Range discover(Environment environment, String stream, Duration timeout)
+      throws InterruptedException {
+    long first = probe(environment, stream, OffsetSpecification.first(), false, timeout);
+    if (first < 0) {
+      return null;
+    }
+    long last = probe(environment, stream, OffsetSpecification.last(), true, timeout);
+    return new Range(first, Math.max(first, last));
+  }
+
+  /**
+   * First offset delivered from the offset specification, or the greatest one until the first idle
+   * period, -1 if nothing is delivered.
+   */
+  private static long probe(
+      Environment environment,
+      String stream,
+      OffsetSpecification offsetSpecification,
+      boolean greatest,
+      Duration timeout)
+      throws InterruptedException {
+    AtomicLong offset = new AtomicLong(-1);
+    CountDownLatch received = new CountDownLatch(1);
+    Consumer consumer =
+        environment.consumerBuilder().stream(stream)
+            .offset(offsetSpecification)
+            .messageHandler(
+                (context, message) -> {
+                  if (greatest) {
+                    offset.accumulateAndGet(context.offset(), Math::max);
+                  } else {
+                    offset.compareAndSet(-1, context.offset());
+                  }
+                  received.countDown();
+                })
+            .build();
+    try {
+      if (received.await(timeout.toMillis(), TimeUnit.MILLISECONDS) && greatest) {
+        // a chunk is delivered at once, waits until the rest of it arrives,
+        // but not forever if publishers keep appending to the stream
+        long deadline = System.nanoTime() + timeout.toNanos();
+        long current;
+        do {
+          current = offset.get();
+          Thread.sleep(200);
+        } while (offset.get() != current && System.nanoTime() < deadline);
+      }
+    } finally {
+      consumer.close();
+    }
+    return offset.get();
+  }
+
+  /** Splits the range in contiguous chunks of (almost) the same size. */
+  public static List<Range> split(long first, long last, int count) {
+    long size = last - first + 1;
+    int chunkCount = (int) Math.max(1, Math.min(count, size));
+    List<Range> chunks = new ArrayList<>(chunkCount);
+    long start = first;
+    for (int i = 0; i < chunkCount; i++) {
+      long chunkSize = size / chunkCount + (i < size % chunkCount ? 1 : 0);
+      chunks.add(new Range(start, start + chunkSize - 1));
+      start += chunkSize;
+    }
+    return chunks;
+  }
+
+  /**
+   * Runs the consumers and gives the results to the sink, returns when all the chunks are done.
+   *
+   * @return the number of results given to the sink
+   * @throws IllegalStateException if a chunk does not progress for the timeout duration
+   */
+  public long run() throws InterruptedException {
+    List<ChunkReader<T>> readers = new ArrayList<>(chunks.size());
+    try {
+      for (Range chunk : chunks) {
+        ChunkReader<T> reader = new ChunkReader<>(chunk, queueCapacity);
+        readers.add(reader);
+        reader.consumer =
+            environment.consumerBuilder().stream(stream)
+                .offset(OffsetSpecification.offset(chunk.first))
+                .messageHandler(
+                    (context, message) -> {
+                      long offset = context.offset();
+                      // the last chunk of the stream can end after the range
+                      if (offset > chunk.last) {
+                        return;
+                      }
+                      try {
+                        reader.queue.put(new Entry<>(offset, mapper.map(offset, message)));
+                        if (offset == chunk.last) {
+                          reader.end.countDown();
+                        }
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                    })
+                .build();
+      }
+      return ordered ? mergeInOrder(readers) : mergeAsTheyCome(readers);
+    } finally {
+      readers.forEach(ChunkReader::close);
+    }
+  }
+
+  // a consumer does not know where its chunk ends, it would read the rest of the stream
+  private static void closeFinished(List<? extends ChunkReader<?>> readers) {
+    for (ChunkReader<?> reader : readers) {
+      if (reader.end.getCount() == 0) {
+        reader.close();
+      }
+    }
+  }
+
+  private long mergeInOrder(List<ChunkReader<T>> readers) throws InterruptedException {
+    long count = 0;
+    for (ChunkReader<T> reader : readers) {
+      Range chunk = reader.chunk;
+      long offset = chunk.first - 1;
+      long lastProgress = System.nanoTime();
+      while (offset < chunk.last) {
+        closeFinished(readers);
+        Entry<T> entry = reader.queue.poll(100, TimeUnit.MILLISECONDS);
+        if (entry == null) {
+          if (System.nanoTime() - lastProgress > timeout.toNanos()) {
+            throw new IllegalStateException(
+                String.format("No progress in chunk %s after offset %d", chunk, offset));
+          }
+          continue;
+        }
+        lastProgress = System.nanoTime();
+        offset = entry.offset;
+        sink.accept(entry.offset, entry.value);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private long mergeAsTheyCome(List<ChunkReader<T>> readers) throws InterruptedException {
+    long[] offsets = new long[readers.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = readers.get(i).chunk.first - 1;
+    }
+    List<Entry<T>> batch = new ArrayList<>(queueCapacity);
+    long count = 0;
+    int done = 0;
+    long lastProgress = System.nanoTime();
+    while (done < readers.size()) {
+      closeFinished(readers);
+      boolean progress = false;
+      for (int i = 0; i < readers.size(); i++) {
+        ChunkReader<T> reader = readers.get(i);
+        if (offsets[i] == reader.chunk.last) {
+          continue;
+        }
+        reader.queue.drainTo(batch);
+        for (Entry<T> entry : batch) {
+          sink.accept(entry.offset, entry.value);
+        }
+        if (!batch.isEmpty()) {
+          offsets[i] = batch.get(batch.size() - 1).offset;
+          count += batch.size();
+          progress = true;
+          if (offsets[i] == reader.chunk.last) {
+            done++;
+          }
+          batch.clear();
+        }
+      }
+      if (progress) {
+        lastProgress = System.nanoTime();
+      } else if (System.nanoTime() - lastProgress > timeout.toNanos()) {
+        throw new IllegalStateException("No progress in any chunk for " + timeout);
+      } else {
+        Thread.sleep(1);
+      }
+    }
+    return count;
+  }
+
+  /** Offsets from first to last, both inclusive. */
+  public static class Range {
+
+    private final long first;
+    private final long last;
+
+    public Range(long first, long last) {
+      this.first = first;
+      this.last = last;
+    }
+
+    public long first() {
+      return first;
+    }
+
+    public long last() {
+      return last;
+    }
+
+    public long count() {
+      return last - first + 1;
+    }
+
+    @Override
+    public String toString() {
+      return "[" + first + ", " + last + "]";
+    }
+  }
+
+  /** Turns a message into a result, called in parallel by the consumers. */
+  @FunctionalInterface
+  public interface Mapper<T> {
+
+    T map(long offset, Message message);
+  }
+
+  /** Receives the results, always from the merging thread. */
+  @FunctionalInterface
+  public interface Sink<T> {
+
+    void accept(long offset, T value);
+  }
+
+  private static class ChunkReader<T> {
+
+    private final Range chunk;
+    private final BlockingQueue<Entry<T>> queue;
+    // counted down once the last offset of the chunk is in the queue
+    private final CountDownLatch end = new CountDownLatch(1);
+    private Consumer consumer;
+    private boolean closed = false;
+
+    private ChunkReader(Range chunk, int queueCapacity) {
+      this.chunk = chunk;
+      this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    // merging thread only
+    private void close() {
+      if (!closed && consumer != null) {
+        closed = true;
+        consumer.close();
+      }
+    }
+  }
+
+  private static class Entry<T> {
+
+    private final long offset;
+    private final T value;
+
+    private Entry(long offset, T value) {
+      this.offset = offset;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package com.rabbitmq.stream;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Target publishing rate over time, to schedule messages at their intended send time.
+ *
+ * <p>Profiles: <code>constant</code> (the rate), <code>ramp</code> (linear from the start rate to
+ * the rate over the ramp duration, then constant), <code>step</code> (the start rate plus the step
+ * every period, up to the rate) and <code>burst</code> (the rate for the burst duration at the
+ * beginning of every period, the start rate otherwise). Times are in nanoseconds since the
+ * beginning of the schedule, rates in messages/second.
+ */
+public class RateProfile {
+
+  private static final double NANOS = 1_000_000_000.0;
+
+  private final String type;
+  private final double rate;
+  private final double startRate;
+  private final double step;
+  private final long period;
+  private final long duration;
+
+  private RateProfile(
+      String type, double rate, double startRate, double step, long period, long duration) {
+    this.type = type;
+    this.rate = rate;
+    this.startRate = startRate;
+    this.step = step;
+    this.period = period;
+    this.duration = duration;
+  }
+
+  public static RateProfile constant(double rate) {
+    return new RateProfile("constant", rate, rate, 0, 1, 1);
+  }
+
+  public static RateProfile ramp(double startRate, double rate, long durationInSeconds) {
+    return new RateProfile(
+        "ramp", rate, startRate, 0, 1, TimeUnit.SECONDS.toNanos(durationInSeconds));
+  }
+
+  public static RateProfile step(
+      double startRate, double step, long periodInSeconds, double maxRate) {
+    return new RateProfile(
+        "step", maxRate, startRate, step, TimeUnit.SECONDS.toNanos(periodInSeconds), 1);
+  }
+
+  public static RateProfile burst(
+      double baseRate, double burstRate, long burstInSeconds, long periodInSeconds) {
+    return new RateProfile(
+        "burst",
+        burstRate,
+        baseRate,
+        0,
+        TimeUnit.SECONDS.toNanos(periodInSeconds),
+        TimeUnit.SECONDS.toNanos(burstInSeconds));
+  }
+
+  /**
+   * Profile from <code>-Dstream.rate.profile</code>, with <code>-Dstream.rate</code> (the maximum
+   * rate), <code>-Dstream.rate.start</code> (default is 0), <code>-Dstream.rate.step</code>
+   * (default is a tenth of the rate), <code>-Dstream.rate.period</code> (seconds, default is 10)
+   * and <code>-Dstream.rate.burst</code> (seconds, default is 1). The ramp lasts <code>
+   * rampDurationInSeconds</code>.
+   */
+  static RateProfile fromSystemProperties(long rampDurationInSeconds) {
+    String type = System.getProperty("stream.rate.profile", "constant").toLowerCase(Locale.ROOT);
+    double rate = Long.getLong("stream.rate", 0);
+    double startRate = Long.getLong("stream.rate.start", 0);
+    long period = Long.getLong("stream.rate.period", 10);
+    if (rate <= 0) {
+      throw new IllegalArgumentException("A positive rate is expected for a rate profile");
+    }
+    switch (type) {
+      case "constant":
+        return constant(rate);
+      case "ramp":
+        if (rampDurationInSeconds <= 0) {
+          throw new IllegalArgumentException("A duration is expected for a ramp");
+        }
+        return ramp(startRate, rate, rampDurationInSeconds);
+      case "step":
+        long step = Long.getLong("stream.rate.step", (long) rate / 10);
+        if (step <= 0 && startRate <= 0) {
+          throw new IllegalArgumentException("A positive start rate or step is expected");
+        }
+        return step(startRate, step, period, rate);
+      case "burst":
+        return burst(startRate, rate, Long.getLong("stream.rate.burst", 1), period);
+      default:
+        throw new IllegalArgumentException("Unknown rate profile: " + type);
+    }
+  }
+
+  /** Target rate at a given time. */
+  public double rate(long time) {
+    switch (type) {
+      case "constant":
+        return rate;
+      case "ramp":
+        return time >= duration ? rate : startRate + (rate - startRate) * time / duration;
+      case "step":
+        return Math.min(rate, startRate + step * (time / period));
+      case "burst":
+        return time % period < duration ? rate : startRate;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  /** Number of messages the schedule expects at a given time (the integral of the rate). */
+  public double expected(long time) {
+    double seconds = time / NANOS;
+    switch (type) {
+      case "constant":
+        return rate * seconds;
+      case "ramp":
+        double rampSeconds = duration / NANOS;
+        if (time < duration) {
+          return startRate * seconds + (rate - startRate) * seconds * seconds / (2 * rampSeconds);
+        } else {
+          return (startRate + rate) * rampSeconds / 2 + rate * (seconds - rampSeconds);
+        }
+      case "step":
+        double periodSeconds = period / NANOS;
+        long periods = time / period;
+        // periods before reaching the maximum rate
+        long steps =
+            step > 0 ? (long) Math.ceil(Math.max(0, rate - startRate) / step) : Long.MAX_VALUE;
+        long rising = Math.min(periods, steps);
+        double count =
+            (rising * startRate + step * rising * (rising - 1) / 2.0) * periodSeconds
+                + (periods - rising) * rate * periodSeconds;
+        return count + rate(time) * (time - periods * period) / NANOS;
+      case "burst":
+        long fullPeriods = time / period;
+        long inPeriod = time % period;
+        double byPeriod = (rate * duration + startRate * (period - duration)) / NANOS;
+        return fullPeriods * byPeriod
+            + (rate * Math.min(inPeriod, duration) + startRate * Math.max(0, inPeriod - duration))
+                / NANOS;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  /**
+   * Intended send time of the message with the given index (starting at 0), the earliest time the
+   * schedule expects more than <code>index</code> messages, searched from <code>from</code>.
+   */
+  public long sendTime(long index, long from) {
+    if (index == 0) {
+      return 0;
+    }
+    if (expected(from) >= index) {
+      return from;
+    }
+    long low = from;
+    long high = from + TimeUnit.MILLISECONDS.toNanos(1);
+    while (expected(high) < index) {
+      low = high;
+      high = from + (high - from) * 2;
+    }
+    while (high - low > 1) {
+      long middle = low + (high - low) / 2;
+      if (expected(middle) >= index) {
+        high = middle;
+      } else {
+        low = middle;
+      }
+    }
+    return high;
+  }
+
+  @Override
+  public String toString() {
+    switch (type) {
+      case "constant":
+        return String.format("constant %,.0f msg/s", rate);
+      case "ramp":
+        return String.format(
+            "ramp from %,.0f to %,.0f msg/s in %d s",
+            startRate, rate, TimeUnit.NANOSECONDS.toSeconds(duration));
+      case "step":
+        return String.format(
+            "step from %,.0f msg/s, +%,.0f msg/s every %d s, up to %,.0f msg/s",
+            startRate, step, TimeUnit.NANOSECONDS.toSeconds(period), rate);
+      case "burst":
+        return String.format(
+            "%,.0f msg/s, bursts at %,.0f msg/s for %d s every %d s",
+            startRate,
+            rate,
+            TimeUnit.NANOSECONDS.toSeconds(duration),
+            TimeUnit.NANOSECONDS.toSeconds(period));
+      default:
+        return type;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package com.rabbitmq.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Client-side index of a stream, from a key (e.g. the routing key) to the offset ranges that
+ * contain messages with this key, stored in a local file.
+ *
+ * <p>The index is built incrementally by a consumer, see {@link #indexer(Function)}, and resumes
+ * where it stopped with {@link #nextOffset()}. An offset closer than {@code maxGap} to the last
+ * range of its key extends this range, so ranges stay few and large when keys come in bursts, at
+ * the cost of reading some messages of other keys. Consumers of a key subscribe at the start of
+ * each range and stop at its end, see {@link Range}.
+ */
+public class RoutingKeyIndex {
+
+  private static final int MAGIC = 0x524b4931; // RKI1
+
+  private final Path file;
+  private final long maxGap;
+  private final Map<String, List<Range>> ranges = new TreeMap<>();
+  private long nextOffset = 0;
+
+  private RoutingKeyIndex(Path file, long maxGap) {
+    this.file = file;
+    this.maxGap = maxGap;
+  }
+
+  /** Loads the index from the file, or creates an empty index if the file does not exist. */
+  public static RoutingKeyIndex load(Path file, long maxGap) {
+    RoutingKeyIndex index = new RoutingKeyIndex(file, maxGap);
+    if (Files.exists(file)) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+        if (in.readInt() != MAGIC) {
+          throw new IllegalStateException("Not a routing key index: " + file);
+        }
+        index.nextOffset = in.readLong();
+        int keyCount = in.readInt();
+        for (int i = 0; i < keyCount; i++) {
+          String key = in.readUTF();
+          int rangeCount = in.readInt();
+          List<Range> keyRanges = new ArrayList<>(rangeCount);
+          for (int j = 0; j < rangeCount; j++) {
+            keyRanges.add(new Range(in.readLong(), in.readLong(), in.readLong()));
+          }
+          index.ranges.put(key, keyRanges);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return index;
+  }
+
+  /** Adds the message at the offset, offsets already indexed are ignored. */
+  public synchronized void add(String key, long offset) {
+    if (offset < nextOffset) {
+      return;
+    }
+    nextOffset = offset + 1;
+    if (key == null) {
+      return;
+    }
+    List<Range> keyRanges = ranges.computeIfAbsent(key, k -> new ArrayList<>());
+    Range last = keyRanges.isEmpty() ? null : keyRanges.get(keyRanges.size() - 1);
+    if (last != null && offset - last.last <= maxGap) {
+      last.last = offset;
+      last.count++;
+    } else {
+      keyRanges.add(new Range(offset, offset, 1));
+    }
+  }
+
+  /** Handler that adds each message to the index with the key the function extracts. */
+  public MessageHandler indexer(Function<Message, String> keyExtractor) {
+    return (context, message) -> add(keyExtractor.apply(message), context.offset());
+  }
+
+  /** The routing key of messages published with AMQP 0.9.1, null if there is none. */
+  public static String routingKey(Message message) {
+    Map<String, Object> annotations = message.getMessageAnnotations();
+    Object routingKey = annotations == null ? null : annotations.get("x-routing-key");
+    return routingKey == null ? null : routingKey.toString();
+  }
+
+  /** The offset to resume indexing from. */
+  public synchronized long nextOffset() {
+    return nextOffset;
+  }
+
+  public synchronized Set<String> keys() {
+    return Collections.unmodifiableSet(new TreeSet<>(ranges.keySet()));
+  }
+
+  public synchronized List<Range> ranges(String key) {
+    List<Range> copy = new ArrayList<>();
+    for (Range range : ranges.getOrDefault(key, Collections.emptyList())) {
+      copy.add(new Range(range.first, range.last, range.count));
+    }
+    return copy;
+  }
+
+  /** Writes the index to a temporary file and replaces the previous one. */
+  public synchronized void save() {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeLong(nextOffset);
+        out.writeInt(ranges.size());
+        for (Map.Entry<String, List<Range>> entry : ranges.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeInt(entry.getValue().size());
+          for (Range range : entry.getValue()) {
+            out.writeLong(range.first);
+            out.writeLong(range.last);
+            out.writeLong(range.count);
+          }
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Offsets of the first and last messages of a key in a range, both inclusive. */
+  public static class Range {
+
+    private final long first;
+    private long last, count;
+
+    private Range(long first, long last, long count) {
+      this.first = first;
+      this.last = last;
+      this.count = count;
+    }
+
+    public long first() {
+      return first;
+    }
+
+    public long last() {
+      return last;
+    }
+
+    /** Number of messages of the key in the range. */
+    public long count() {
+      return count;
+    }
+
+    @Override
+    public String toString() {
+      return "[" + first + ", " + last + "] (" + count + ")";
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package com.rabbitmq.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Producer that spreads messages over a set of partition streams, the partition is picked
+ * client-side for each message from its routing key.
+ *
+ * <p>There is a producer for each partition, so each partition can have its leader on a different
+ * node. Messages that no partition accepts fail with {@link #CODE_NO_ROUTE_FOUND}.
+ */
+public class RoutingProducer implements AutoCloseable {
+
+  public static final short CODE_NO_ROUTE_FOUND = 10_100;
+
+  private final List<String> partitions;
+  private final List<Producer> producers;
+  private final Function<Message, String> routingKeyExtractor;
+  private final ToIntFunction<String> partitionSelector;
+
+  private RoutingProducer(
+      Environment environment,
+      List<String> partitions,
+      Function<Message, String> routingKeyExtractor,
+      ToIntFunction<String> partitionSelector) {
+    this.partitions = Collections.unmodifiableList(new ArrayList<>(partitions));
+    this.producers = new ArrayList<>(partitions.size());
+    for (String partition : partitions) {
+      this.producers.add(environment.producerBuilder().stream(partition).build());
+    }
+    this.routingKeyExtractor = routingKeyExtractor;
+    this.partitionSelector = partitionSelector;
+  }
+
+  /**
+   * Routes to the partition at index hash(routing key) modulo the number of partitions, the hash
+   * taken as unsigned, as the client does.
+   */
+  public static RoutingProducer hashRouting(
+      Environment environment,
+      List<String> partitions,
+      Function<Message, String> routingKeyExtractor) {
+    int partitionCount = partitions.size();
+    return new RoutingProducer(
+        environment,
+        partitions,
+        routingKeyExtractor,
+        routingKey -> Integer.remainderUnsigned(murmur3(routingKey), partitionCount));
+  }
+
+  /** Routes to the partition bound to the routing key, as a direct exchange would. */
+  public static RoutingProducer keyRouting(
+      Environment environment,
+      Map<String, String> bindings,
+      Function<Message, String> routingKeyExtractor) {
+    List<String> partitions = new ArrayList<>();
+    Map<String, Integer> indexes = new HashMap<>();
+    bindings.forEach(
+        (routingKey, partition) -> {
+          if (!partitions.contains(partition)) {
+            partitions.add(partition);
+          }
+          indexes.put(routingKey, partitions.indexOf(partition));
+        });
+    return new RoutingProducer(
+        environment,
+        partitions,
+        routingKeyExtractor,
+        routingKey -> indexes.getOrDefault(routingKey, -1));
+  }
+
+  public MessageBuilder messageBuilder() {
+    return producers.get(0).messageBuilder();
+  }
+
+  public List<String> partitions() {
+    return partitions;
+  }
+
+  public void send(Message message, ConfirmationHandler confirmationHandler) {
+    String routingKey = routingKeyExtractor.apply(message);
+    int partition = routingKey == null ? -1 : partitionSelector.applyAsInt(routingKey);
+    if (partition < 0) {
+      confirmationHandler.handle(new ConfirmationStatus(message, false, CODE_NO_ROUTE_FOUND));
+    } else {
+      producers.get(partition).send(message, confirmationHandler);
+    }
+  }
+
+  /** Sends the message to all the partitions, the handler is called once for each of them. */
+  public void broadcast(Message message, ConfirmationHandler confirmationHandler) {
+    producers.forEach(producer -> producer.send(message, confirmationHandler));
+  }
+
+  @Override
+  public void close() {
+    producers.forEach(Producer::close);
+  }
+
+  // same hash function (Murmur3, 32-bit, seed 104729) as the client's super stream routing
+  static int murmur3(String value) {
+    byte[] data = value.getBytes(StandardCharsets.UTF_8);
+    int length = data.length;
+    int hash = 104729;
+    int blocks = length >> 2;
+    for (int i = 0; i < blocks; i++) {
+      int index = i << 2;
+      int k =
+          (data[index] & 0xff)
+              | ((data[index + 1] & 0xff) << 8)
+              | ((data[index + 2] & 0xff) << 16)
+              | ((data[index + 3] & 0xff) << 24);
+      k *= 0xcc9e2d51;
+      k = Integer.rotateLeft(k, 15);
+      k *= 0x1b873593;
+      hash ^= k;
+      hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+    }
+    int index = blocks << 2;
+    int remaining = length - index;
+    if (remaining > 0) {
+      int k = 0;
+      if (remaining == 3) {
+        k ^= (data[index + 2] & 0xff) << 16;
+      }
+      if (remaining >= 2) {
+        k ^= (data[index + 1] & 0xff) << 8;
+      }
+      k ^= data[index] & 0xff;
+      k *= 0xcc9e2d51;
+      k = Integer.rotateLeft(k, 15);
+      k *= 0x1b873593;
+      hash ^= k;
+    }
+    hash ^= length;
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+}
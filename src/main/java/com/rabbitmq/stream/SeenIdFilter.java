@@ -0,0 +1,340 @@
+package com.rabbitmq.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Consumer-side deduplication of messages by ID, with bounded memory.
+ *
+ * <p>The ID of a message is its message ID, or a hash of its body if it has none, see {@link
+ * #id(Message)}. The most recent IDs are kept exactly in a window (an open-addressing hash set of
+ * longs and a ring buffer for the insertion order). IDs that leave the window go to a blocked bloom
+ * filter (the bits of an ID are in the same cache line), with 2 generations: when the current one
+ * reaches its capacity, the older one is dropped, so the false positive rate stays bounded and very
+ * old IDs are eventually forgotten. Memory does not depend on the number of messages and there is
+ * no boxing.
+ *
+ * <p>A bloom filter hit is a probable duplicate, the message is skipped as well. The state can be
+ * saved with the offset of the last processed message, see {@link #snapshot(long)}, so a restarted
+ * consumer resumes after this offset with the IDs it had seen. The filter is not thread-safe, it is
+ * meant to be used from the dispatching thread of a consumer.
+ */
+public class SeenIdFilter {
+
+  private static final int MAGIC = 0x53494631; // SIF1
+  private static final long EMPTY = 0;
+  private static final int BLOCK_BITS = 512;
+  private static final long BLOCK_BIT_MASK = BLOCK_BITS - 1;
+
+  private final Path file;
+  private final int windowSize;
+  private final long bloomCapacity;
+  private final double falsePositiveRate;
+  // window: hash set with linear probing, ring buffer of the keys in insertion order
+  private final long[] table;
+  private final int mask;
+  private final long[] ring;
+  private int ringHead = 0;
+  private int ringSize = 0;
+  // bloom filter generations
+  private final int hashCount;
+  private final long bitCount;
+  private final long blockMask;
+  private long[] currentBloom;
+  private long[] previousBloom;
+  private long currentBloomCount = 0;
+  private long offset = -1;
+  private long accepted = 0;
+  private long windowDuplicates = 0;
+  private long bloomDuplicates = 0;
+
+  public SeenIdFilter(Path file, int windowSize, long bloomCapacity, double falsePositiveRate) {
+    if (windowSize < 1 || bloomCapacity < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("Invalid window size, bloom capacity, or rate");
+    }
+    this.file = file;
+    this.windowSize = windowSize;
+    this.bloomCapacity = bloomCapacity;
+    this.falsePositiveRate = falsePositiveRate;
+    // load factor of 0.25 at most, probe sequences stay short
+    int tableSize = Integer.highestOneBit(Math.max(2, windowSize) * 2 - 1) << 2;
+    this.table = new long[tableSize];
+    this.mask = tableSize - 1;
+    this.ring = new long[windowSize];
+    // 2 generations are checked, each gets half of the false positive rate
+    double bits = -bloomCapacity * Math.log(falsePositiveRate / 2) / (Math.log(2) * Math.log(2));
+    // power of 2 to use a mask instead of a modulo, in blocks of 512 bits (a cache line)
+    this.bitCount = Math.max(BLOCK_BITS, Long.highestOneBit((long) Math.ceil(bits) - 1) << 1);
+    this.blockMask = bitCount / BLOCK_BITS - 1;
+    this.hashCount = Math.max(1, (int) Math.round(bits / bloomCapacity * Math.log(2)));
+    this.currentBloom = new long[(int) (bitCount / 64)];
+    this.previousBloom = new long[(int) (bitCount / 64)];
+  }
+
+  /**
+   * Loads the state of the filter from the file, or creates an empty filter if the file does not
+   * exist or was written with other settings.
+   */
+  public static SeenIdFilter load(
+      Path file, int windowSize, long bloomCapacity, double falsePositiveRate) {
+    SeenIdFilter filter = new SeenIdFilter(file, windowSize, bloomCapacity, falsePositiveRate);
+    if (Files.exists(file)) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+        if (in.readInt() != MAGIC) {
+          throw new IllegalStateException("Not a seen ID filter: " + file);
+        }
+        if (in.readInt() != windowSize
+            || in.readLong() != bloomCapacity
+            || in.readDouble() != falsePositiveRate) {
+          return filter;
+        }
+        filter.offset = in.readLong();
+        filter.accepted = in.readLong();
+        filter.windowDuplicates = in.readLong();
+        filter.bloomDuplicates = in.readLong();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+          filter.addToWindow(in.readLong());
+        }
+        filter.currentBloomCount = in.readLong();
+        for (int i = 0; i < filter.currentBloom.length; i++) {
+          filter.currentBloom[i] = in.readLong();
+        }
+        for (int i = 0; i < filter.previousBloom.length; i++) {
+          filter.previousBloom[i] = in.readLong();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return filter;
+  }
+
+  /**
+   * ID of a message: its message ID if it has one (a number as is, a string, binary, or UUID
+   * hashed), otherwise a hash of its body.
+   */
+  public static long id(Message message) {
+    Object messageId =
+        message.getProperties() == null ? null : message.getProperties().getMessageId();
+    if (messageId instanceof Number) {
+      return ((Number) messageId).longValue();
+    } else if (messageId instanceof String) {
+      String value = (String) messageId;
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < value.length(); i++) {
+        hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+      }
+      return mix(hash);
+    } else if (messageId instanceof UUID) {
+      UUID uuid = (UUID) messageId;
+      return mix(uuid.getMostSignificantBits()) ^ uuid.getLeastSignificantBits();
+    } else if (messageId instanceof byte[]) {
+      return hash((byte[]) messageId);
+    } else {
+      return hash(message.getBodyAsBinary());
+    }
+  }
+
+  static long hash(byte[] bytes) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : bytes) {
+      hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+
+  private static long key(long id) {
+    // the mix is a bijection, only one ID collides with the empty marker
+    long key = mix(id + 0x9e3779b97f4a7c15L);
+    return key == EMPTY ? 1 : key;
+  }
+
+  /** Wraps the handler to call it only for messages not seen yet. */
+  public MessageHandler wrap(MessageHandler handler) {
+    return (context, message) -> {
+      if (add(id(message))) {
+        handler.handle(context, message);
+      }
+    };
+  }
+
+  /** Adds the ID, returns false if it was (probably) seen already. */
+  public boolean add(long id) {
+    long key = key(id);
+    if (windowContains(key)) {
+      windowDuplicates++;
+      return false;
+    }
+    if (bloomContains(currentBloom, key) || bloomContains(previousBloom, key)) {
+      bloomDuplicates++;
+      return false;
+    }
+    if (ringSize == windowSize) {
+      long evicted = ring[ringHead];
+      removeFromWindow(evicted);
+      ringSize--;
+      ringHead = (ringHead + 1) % windowSize;
+      addToBloom(evicted);
+    }
+    addToWindow(key);
+    accepted++;
+    return true;
+  }
+
+  private void addToWindow(long key) {
+    int slot = (int) key & mask;
+    while (table[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = key;
+    ring[(ringHead + ringSize) % windowSize] = key;
+    ringSize++;
+  }
+
+  private boolean windowContains(long key) {
+    int slot = (int) key & mask;
+    while (table[slot] != EMPTY) {
+      if (table[slot] == key) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  private void removeFromWindow(long key) {
+    int slot = (int) key & mask;
+    while (table[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    // backward shift, so probe sequences stay without holes
+    int hole = slot;
+    int next = (hole + 1) & mask;
+    while (table[next] != EMPTY) {
+      int home = (int) table[next] & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        table[hole] = table[next];
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    table[hole] = EMPTY;
+  }
+
+  private void addToBloom(long key) {
+    if (currentBloomCount == bloomCapacity) {
+      long[] dropped = previousBloom;
+      previousBloom = currentBloom;
+      Arrays.fill(dropped, 0);
+      currentBloom = dropped;
+      currentBloomCount = 0;
+    }
+    int block = block(key);
+    long h1 = mix(key);
+    long h2 = (h1 >>> 32) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      int bit = (int) ((h1 + i * h2) & BLOCK_BIT_MASK);
+      currentBloom[block + (bit >>> 6)] |= 1L << bit;
+    }
+    currentBloomCount++;
+  }
+
+  /** Index of the first word of the block of the key, all its bits are in the same cache line. */
+  private int block(long key) {
+    return (int) (key & blockMask) << 3;
+  }
+
+  private boolean bloomContains(long[] bloom, long key) {
+    int block = block(key);
+    long h1 = mix(key);
+    long h2 = (h1 >>> 32) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      int bit = (int) ((h1 + i * h2) & BLOCK_BIT_MASK);
+      if ((bloom[block + (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Offset of the last snapshot, -1 if there is none. */
+  public long offset() {
+    return offset;
+  }
+
+  public long accepted() {
+    return accepted;
+  }
+
+  /** Duplicates found in the window, they are certain. */
+  public long windowDuplicates() {
+    return windowDuplicates;
+  }
+
+  /** Duplicates found in the bloom filter, they are probable. */
+  public long bloomDuplicates() {
+    return bloomDuplicates;
+  }
+
+  /** Memory used by the window and the bloom filter, in bytes. */
+  public long memory() {
+    return (table.length + ring.length + currentBloom.length + previousBloom.length) * 8L;
+  }
+
+  /**
+   * Writes the state with the offset of the last processed message to a temporary file and replaces
+   * the previous one. Call it before storing the offset in the broker, so the snapshot is never
+   * older than the stored offset.
+   */
+  public void snapshot(long offset) {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(windowSize);
+        out.writeLong(bloomCapacity);
+        out.writeDouble(falsePositiveRate);
+        out.writeLong(offset);
+        out.writeLong(accepted);
+        out.writeLong(windowDuplicates);
+        out.writeLong(bloomDuplicates);
+        out.writeInt(ringSize);
+        for (int i = 0; i < ringSize; i++) {
+          out.writeLong(ring[(ringHead + i) % windowSize]);
+        }
+        out.writeLong(currentBloomCount);
+        for (long word : currentBloom) {
+          out.writeLong(word);
+        }
+        for (long word : previousBloom) {
+          out.writeLong(word);
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+      this.offset = offset;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
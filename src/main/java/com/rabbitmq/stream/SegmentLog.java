@@ -0,0 +1,486 @@
+package com.rabbitmq.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of one stream, stored as chunks in segment files.
+ *
+ * <p>Chunks use the same layout as the broker, so they can be sent as-is in deliver frames.
+ */
+class SegmentLog implements AutoCloseable {
+
+  static final int CHUNK_HEADER_SIZE = 48;
+  static final long DEFAULT_MAX_SEGMENT_SIZE = 500_000_000L;
+
+  private static final byte CHUNK_MAGIC_VERSION = 0x50;
+  private static final byte CHUNK_TYPE_USER = 0;
+  private static final long EPOCH = 1;
+  private static final String SEGMENT_EXTENSION = ".segment";
+  private static final String TRACKING_FILE = "tracking";
+  private static final byte TRACKING_OFFSET = 1;
+  private static final byte TRACKING_PUBLISHER = 2;
+
+  private final Path directory;
+  private final long maxSegmentSize;
+  private final long maxLengthBytes;
+  private final List<Segment> segments = new ArrayList<>();
+  private final Map<String, Long> offsets = new HashMap<>();
+  private final Map<String, Long> publisherSequences = new HashMap<>();
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+  private final CRC32 crc = new CRC32();
+  private FileChannel tracking;
+  // chunk index, entries [head, size) are live
+  private long[] chunkOffsets = new long[1024];
+  private long[] chunkTimestamps = new long[1024];
+  private long[] chunkPositions = new long[1024];
+  private int[] chunkSizes = new int[1024];
+  private int[] chunkRecords = new int[1024];
+  private Segment[] chunkSegments = new Segment[1024];
+  private int head = 0;
+  private int size = 0;
+  private long nextOffset = 0;
+
+  private SegmentLog(Path directory, long maxSegmentSize, long maxLengthBytes) {
+    this.directory = directory;
+    this.maxSegmentSize = maxSegmentSize <= 0 ? DEFAULT_MAX_SEGMENT_SIZE : maxSegmentSize;
+    this.maxLengthBytes = maxLengthBytes;
+  }
+
+  static SegmentLog create(Path directory, Map<String, String> arguments) throws IOException {
+    Files.createDirectories(directory);
+    java.util.Properties properties = new java.util.Properties();
+    arguments.forEach(properties::setProperty);
+    try (Writer writer = Files.newBufferedWriter(directory.resolve("arguments"))) {
+      properties.store(writer, null);
+    }
+    return open(directory);
+  }
+
+  static SegmentLog open(Path directory) throws IOException {
+    java.util.Properties arguments = new java.util.Properties();
+    Path argumentsFile = directory.resolve("arguments");
+    if (Files.exists(argumentsFile)) {
+      try (Reader reader = Files.newBufferedReader(argumentsFile)) {
+        arguments.load(reader);
+      }
+    }
+    SegmentLog log =
+        new SegmentLog(
+            directory,
+            Long.parseLong(arguments.getProperty("stream-max-segment-size-bytes", "0")),
+            Long.parseLong(arguments.getProperty("max-length-bytes", "0")));
+    log.recover();
+    return log;
+  }
+
+  private void recover() throws IOException {
+    List<Path> files;
+    try (Stream<Path> list = Files.list(directory)) {
+      files =
+          list.filter(p -> p.getFileName().toString().endsWith(SEGMENT_EXTENSION))
+              .sorted(Comparator.comparing(p -> p.getFileName().toString()))
+              .collect(Collectors.toList());
+    }
+    ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+    for (Path file : files) {
+      Segment segment = new Segment(file);
+      segments.add(segment);
+      long position = 0;
+      long fileSize = segment.channel.size();
+      while (position + CHUNK_HEADER_SIZE <= fileSize) {
+        header.clear();
+        segment.channel.read(header, position);
+        int records = header.getInt(4);
+        long timestamp = header.getLong(8);
+        long firstOffset = header.getLong(24);
+        int chunkSize = CHUNK_HEADER_SIZE + header.getInt(36) + header.getInt(40);
+        if (position + chunkSize > fileSize) {
+          // incomplete chunk from an interrupted write
+          break;
+        }
+        index(firstOffset, timestamp, position, chunkSize, records, segment);
+        nextOffset = firstOffset + records;
+        position += chunkSize;
+      }
+      if (position != fileSize) {
+        segment.channel.truncate(position);
+      }
+      segment.size = position;
+    }
+    Path trackingFile = directory.resolve(TRACKING_FILE);
+    if (Files.exists(trackingFile)) {
+      ByteBuf bb = Unpooled.wrappedBuffer(Files.readAllBytes(trackingFile));
+      while (bb.readableBytes() > 3) {
+        byte type = bb.readByte();
+        byte[] reference = new byte[bb.readShort()];
+        if (bb.readableBytes() < reference.length + 8) {
+          break;
+        }
+        bb.readBytes(reference);
+        long value = bb.readLong();
+        (type == TRACKING_OFFSET ? offsets : publisherSequences)
+            .put(new String(reference, StandardCharsets.UTF_8), value);
+      }
+    }
+    // rewrite a compact tracking file
+    Path compacted = directory.resolve(TRACKING_FILE + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            compacted,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+        channel.write(trackingRecord(TRACKING_OFFSET, entry.getKey(), entry.getValue()));
+      }
+      for (Map.Entry<String, Long> entry : publisherSequences.entrySet()) {
+        channel.write(trackingRecord(TRACKING_PUBLISHER, entry.getKey(), entry.getValue()));
+      }
+    }
+    Files.move(compacted, trackingFile, StandardCopyOption.REPLACE_EXISTING);
+    tracking = FileChannel.open(trackingFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private static ByteBuffer trackingRecord(byte type, String reference, long value) {
+    byte[] bytes = reference.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = ByteBuffer.allocate(1 + 2 + bytes.length + 8);
+    record.put(type).putShort((short) bytes.length).put(bytes).putLong(value);
+    record.flip();
+    return record;
+  }
+
+  private void index(
+      long firstOffset,
+      long timestamp,
+      long position,
+      int chunkSize,
+      int records,
+      Segment segment) {
+    int slot = head + size;
+    if (slot == chunkOffsets.length) {
+      int capacity = size * 2 > chunkOffsets.length ? chunkOffsets.length * 2 : chunkOffsets.length;
+      chunkOffsets = Arrays.copyOf(Arrays.copyOfRange(chunkOffsets, head, slot), capacity);
+      chunkTimestamps = Arrays.copyOf(Arrays.copyOfRange(chunkTimestamps, head, slot), capacity);
+      chunkPositions = Arrays.copyOf(Arrays.copyOfRange(chunkPositions, head, slot), capacity);
+      chunkSizes = Arrays.copyOf(Arrays.copyOfRange(chunkSizes, head, slot), capacity);
+      chunkRecords = Arrays.copyOf(Arrays.copyOfRange(chunkRecords, head, slot), capacity);
+      chunkSegments = Arrays.copyOf(Arrays.copyOfRange(chunkSegments, head, slot), capacity);
+      head = 0;
+      slot = size;
+    }
+    chunkOffsets[slot] = firstOffset;
+    chunkTimestamps[slot] = timestamp;
+    chunkPositions[slot] = position;
+    chunkSizes[slot] = chunkSize;
+    chunkRecords[slot] = records;
+    chunkSegments[slot] = segment;
+    size++;
+  }
+
+  /**
+   * Appends the entries of a publish frame as one chunk.
+   *
+   * <p>Entries with a publishing ID lower or equal to the last one of the named publisher are
+   * dropped. All the publishing IDs are written to <code>confirms</code>, duplicates included.
+   */
+  void publish(
+      String publisherReference,
+      ByteBuf frame,
+      int messageCount,
+      ByteBufAllocator allocator,
+      ByteBuf confirms) {
+    ByteBuf chunk = allocator.directBuffer(CHUNK_HEADER_SIZE + frame.readableBytes());
+    boolean appended = false;
+    try {
+      chunk.writerIndex(CHUNK_HEADER_SIZE);
+      int entries = 0;
+      int records = 0;
+      synchronized (this) {
+        long lastPublishingId =
+            publisherReference == null
+                ? -1
+                : publisherSequences.getOrDefault(publisherReference, -1L);
+        long publishingId = lastPublishingId;
+        for (int i = 0; i < messageCount; i++) {
+          publishingId = frame.readLong();
+          confirms.writeLong(publishingId);
+          int entryStart = frame.readerIndex();
+          int entryRecords;
+          if ((frame.getByte(entryStart) & 0x80) == 0) {
+            frame.skipBytes(frame.readInt());
+            entryRecords = 1;
+          } else {
+            frame.skipBytes(1);
+            entryRecords = frame.readUnsignedShort();
+            frame.skipBytes(4);
+            frame.skipBytes(frame.readInt());
+          }
+          if (publisherReference == null || publishingId > lastPublishingId) {
+            chunk.writeBytes(frame, entryStart, frame.readerIndex() - entryStart);
+            entries++;
+            records += entryRecords;
+            lastPublishingId = publishingId;
+          }
+        }
+        if (publisherReference != null && messageCount > 0) {
+          publisherSequences.put(publisherReference, lastPublishingId);
+          writeTracking(TRACKING_PUBLISHER, publisherReference, lastPublishingId);
+        }
+        if (entries > 0) {
+          append(chunk, entries, records);
+          appended = true;
+        }
+      }
+    } finally {
+      chunk.release();
+    }
+    if (appended) {
+      listeners.forEach(Runnable::run);
+    }
+  }
+
+  private void append(ByteBuf chunk, int entries, int records) {
+    int dataLength = chunk.readableBytes() - CHUNK_HEADER_SIZE;
+    crc.reset();
+    crc.update(chunk.nioBuffer(CHUNK_HEADER_SIZE, dataLength));
+    long timestamp = System.currentTimeMillis();
+    chunk
+        .setByte(0, CHUNK_MAGIC_VERSION)
+        .setByte(1, CHUNK_TYPE_USER)
+        .setShort(2, entries)
+        .setInt(4, records)
+        .setLong(8, timestamp)
+        .setLong(16, EPOCH)
+        .setLong(24, nextOffset)
+        .setInt(32, (int) crc.getValue())
+        .setInt(36, dataLength)
+        .setInt(40, 0)
+        .setInt(44, 0);
+    try {
+      Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+      if (segment == null || segment.size + chunk.readableBytes() > maxSegmentSize) {
+        segment = roll();
+      }
+      long position = segment.size;
+      ByteBuffer buffer = chunk.nioBuffer();
+      while (buffer.hasRemaining()) {
+        segment.channel.write(buffer, position + buffer.position());
+      }
+      segment.size += chunk.readableBytes();
+      index(nextOffset, timestamp, position, chunk.readableBytes(), records, segment);
+      nextOffset += records;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Segment roll() throws IOException {
+    Segment segment =
+        new Segment(directory.resolve(String.format("%020d%s", nextOffset, SEGMENT_EXTENSION)));
+    segments.add(segment);
+    if (maxLengthBytes > 0) {
+      long total = segments.stream().mapToLong(s -> s.size).sum();
+      while (segments.size() > 1 && total > maxLengthBytes) {
+        Segment oldest = segments.remove(0);
+        total -= oldest.size;
+        while (size > 0 && chunkSegments[head] == oldest) {
+          chunkSegments[head] = null;
+          head++;
+          size--;
+        }
+        oldest.delete();
+      }
+    }
+    return segment;
+  }
+
+  /** Returns the chunk that contains the offset, or the first chunk after it, or null. */
+  synchronized Chunk chunk(long offset) {
+    if (size == 0 || offset >= nextOffset) {
+      return null;
+    }
+    int low = head;
+    int high = head + size - 1;
+    if (offset < chunkOffsets[low]) {
+      return chunkAt(low);
+    }
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (chunkOffsets[middle] <= offset) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return chunkAt(low);
+  }
+
+  private Chunk chunkAt(int slot) {
+    return new Chunk(
+        chunkOffsets[slot],
+        chunkRecords[slot],
+        chunkSegments[slot],
+        chunkPositions[slot],
+        chunkSizes[slot]);
+  }
+
+  /** Reads the chunk into the buffer, returns false if the chunk is no longer available. */
+  boolean read(Chunk chunk, ByteBuf destination) {
+    try {
+      int read = 0;
+      while (read < chunk.size) {
+        int count =
+            destination.writeBytes(chunk.segment.channel, chunk.position + read, chunk.size - read);
+        if (count < 0) {
+          return false;
+        }
+        read += count;
+      }
+      return true;
+    } catch (ClosedChannelException e) {
+      return false;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  synchronized long firstOffset() {
+    return size == 0 ? nextOffset : chunkOffsets[head];
+  }
+
+  synchronized long nextOffset() {
+    return nextOffset;
+  }
+
+  /** First offset of the last chunk, the next offset if the log is empty. */
+  synchronized long lastChunkOffset() {
+    return size == 0 ? nextOffset : chunkOffsets[head + size - 1];
+  }
+
+  /** First offset of the first chunk with a timestamp greater or equal to the given one. */
+  synchronized long offsetForTimestamp(long timestamp) {
+    for (int i = head; i < head + size; i++) {
+      if (chunkTimestamps[i] >= timestamp) {
+        return chunkOffsets[i];
+      }
+    }
+    return nextOffset;
+  }
+
+  synchronized void storeOffset(String reference, long offset) {
+    offsets.put(reference, offset);
+    writeTracking(TRACKING_OFFSET, reference, offset);
+  }
+
+  synchronized long queryOffset(String reference) {
+    return offsets.getOrDefault(reference, 0L);
+  }
+
+  synchronized long publisherSequence(String reference) {
+    return publisherSequences.getOrDefault(reference, 0L);
+  }
+
+  private void writeTracking(byte type, String reference, long value) {
+    try {
+      tracking.write(trackingRecord(type, reference, value));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  void removeListener(Runnable listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public synchronized void close() {
+    segments.forEach(Segment::close);
+    try {
+      tracking.close();
+    } catch (IOException e) {
+      // ignored
+    }
+  }
+
+  synchronized void delete() throws IOException {
+    close();
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.collect(Collectors.toList())) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  static class Chunk {
+
+    final long firstOffset;
+    final int records;
+    final int size;
+    private final Segment segment;
+    private final long position;
+
+    private Chunk(long firstOffset, int records, Segment segment, long position, int size) {
+      this.firstOffset = firstOffset;
+      this.records = records;
+      this.segment = segment;
+      this.position = position;
+      this.size = size;
+    }
+  }
+
+  private static class Segment {
+
+    private final Path file;
+    private final FileChannel channel;
+    private long size = 0;
+
+    private Segment(Path file) throws IOException {
+      this.file = file;
+      this.channel =
+          FileChannel.open(
+              file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // ignored
+      }
+    }
+
+    private void delete() throws IOException {
+      close();
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,318 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.stream.metrics.MicrometerMetricsCollector;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Producer and consumer metrics in a Micrometer registry, exposed with JMX.
+ *
+ * <p>Enabled with <code>-Dstream.metrics=true</code>. {@link #producer(String, Producer)} and
+ * {@link #consumer(String, MessageHandler)} wrap a producer and a message handler, {@link
+ * #configure(EnvironmentBuilder)} adds the client's connection-level metrics. Counters are {@link
+ * LongAdder}s and latencies are recorded in HdrHistogram {@link Recorder}s, so threads do not
+ * contend on the publishing and consuming paths. Latency percentiles are computed for each interval
+ * (<code>-Dstream.metrics.interval</code>, in seconds, default is 5), counters have rates in JMX.
+ */
+public class StreamMetrics implements AutoCloseable {
+
+  static final String ENABLED_PROPERTY = "stream.metrics";
+  static final String INTERVAL_PROPERTY = "stream.metrics.interval";
+  static final String PREFIX = "rabbitmq.stream";
+
+  private static final StreamMetrics NO_OP = new StreamMetrics();
+  private static final double[] PERCENTILES = new double[] {50, 99, 99.9};
+  private static final String[] PERCENTILE_TAGS = new String[] {"0.5", "0.99", "0.999"};
+
+  private final MeterRegistry registry;
+  private final ScheduledExecutorService scheduler;
+  private final List<Latency> latencies = new CopyOnWriteArrayList<>();
+  private final Map<String, ConsumerMetrics> consumers = new ConcurrentHashMap<>();
+
+  private StreamMetrics() {
+    this.registry = null;
+    this.scheduler = null;
+  }
+
+  public StreamMetrics(MeterRegistry registry, int intervalInSeconds) {
+    this.registry = registry;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "stream-metrics");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.scheduler.scheduleAtFixedRate(
+        () -> latencies.forEach(Latency::rotate),
+        intervalInSeconds,
+        intervalInSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /** Metrics in a JMX registry if enabled, no-op ones otherwise. */
+  public static StreamMetrics fromSystemProperties() {
+    if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+      return new StreamMetrics(
+          new JmxMeterRegistry(JmxConfig.DEFAULT, Clock.SYSTEM),
+          Integer.getInteger(INTERVAL_PROPERTY, 5));
+    } else {
+      return NO_OP;
+    }
+  }
+
+  public MeterRegistry registry() {
+    return registry;
+  }
+
+  /** Adds connection-level metrics of the client (bytes, chunks, connections). */
+  public EnvironmentBuilder configure(EnvironmentBuilder builder) {
+    if (registry != null) {
+      builder.metricsCollector(new MicrometerMetricsCollector(registry, PREFIX + ".client"));
+    }
+    return builder;
+  }
+
+  /** Producer that counts sent, confirmed, failed and outstanding messages, and confirm latency. */
+  public Producer producer(String name, Producer producer) {
+    return registry == null ? producer : new InstrumentedProducer(name, producer);
+  }
+
+  /**
+   * Handler that counts consumed messages and offset stores, and tracks the last consumed and
+   * stored offsets, the lag between them, and the time spent in the handler.
+   *
+   * <p>Offsets stored with the context or with the consumer it returns (e.g. by {@link
+   * ParallelMessageHandler} or {@link OffsetCommitter}) are counted. The handler must be used by
+   * only one consumer: it gives the same context object to the delegate for each message, so the
+   * delegate must not keep it after {@link MessageHandler#handle(MessageHandler.Context, Message)}
+   * returns.
+   */
+  public MessageHandler consumer(String name, MessageHandler handler) {
+    return registry == null ? handler : new InstrumentedHandler(consumerMetrics(name), handler);
+  }
+
+  /**
+   * Consumer that counts its offset stores in the metrics of the consumer with this name, for
+   * applications that call {@link Consumer#store(long)} outside of the handler.
+   */
+  public Consumer consumer(String name, Consumer consumer) {
+    return registry == null ? consumer : new InstrumentedConsumer(consumerMetrics(name), consumer);
+  }
+
+  private ConsumerMetrics consumerMetrics(String name) {
+    return consumers.computeIfAbsent(name, ConsumerMetrics::new);
+  }
+
+  private LongAdder counter(String name, String tagKey, String tagValue) {
+    LongAdder adder = new LongAdder();
+    FunctionCounter.builder(PREFIX + "." + name, adder, LongAdder::sum)
+        .tag(tagKey, tagValue)
+        .register(registry);
+    return adder;
+  }
+
+  private Latency latency(String name, String tagKey, String tagValue) {
+    Latency latency = new Latency();
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      double percentile = PERCENTILES[i];
+      TimeGauge.builder(
+              PREFIX + "." + name,
+              latency,
+              TimeUnit.NANOSECONDS,
+              l -> l.last.getValueAtPercentile(percentile))
+          .tag(tagKey, tagValue)
+          .tag("percentile", PERCENTILE_TAGS[i])
+          .register(registry);
+    }
+    TimeGauge.builder(PREFIX + "." + name, latency, TimeUnit.NANOSECONDS, l -> l.last.getMaxValue())
+        .tag(tagKey, tagValue)
+        .tag("percentile", "max")
+        .register(registry);
+    latencies.add(latency);
+    return latency;
+  }
+
+  @Override
+  public void close() {
+    if (registry != null) {
+      scheduler.shutdownNow();
+      registry.close();
+    }
+  }
+
+  private static class Latency {
+
+    private final Recorder recorder = new Recorder(3);
+    private volatile Histogram last = new Histogram(3);
+
+    void record(long nanos) {
+      recorder.recordValue(Math.max(0, nanos));
+    }
+
+    void rotate() {
+      last = recorder.getIntervalHistogram();
+    }
+  }
+
+  private class InstrumentedProducer implements Producer {
+
+    private final Producer delegate;
+    private final LongAdder published, confirmed, failed;
+    private final Latency latency;
+
+    private InstrumentedProducer(String name, Producer delegate) {
+      this.delegate = delegate;
+      this.published = counter("producer.published", "producer", name);
+      this.confirmed = counter("producer.confirmed", "producer", name);
+      this.failed = counter("producer.failed", "producer", name);
+      Gauge.builder(
+              PREFIX + ".producer.outstanding",
+              this,
+              p -> p.published.sum() - p.confirmed.sum() - p.failed.sum())
+          .tag("producer", name)
+          .register(registry);
+      this.latency = latency("producer.confirm.latency", "producer", name);
+    }
+
+    @Override
+    public MessageBuilder messageBuilder() {
+      return delegate.messageBuilder();
+    }
+
+    @Override
+    public long getLastPublishingId() {
+      return delegate.getLastPublishingId();
+    }
+
+    @Override
+    public void send(Message message, ConfirmationHandler confirmationHandler) {
+      long sent = System.nanoTime();
+      published.increment();
+      delegate.send(
+          message,
+          confirmationStatus -> {
+            latency.record(System.nanoTime() - sent);
+            (confirmationStatus.isConfirmed() ? confirmed : failed).increment();
+            confirmationHandler.handle(confirmationStatus);
+          });
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+
+  private class ConsumerMetrics {
+
+    private final LongAdder consumed, offsetStores;
+    private final LongAccumulator storedOffset = new LongAccumulator(Math::max, -1);
+    private final Latency handlerTime;
+    private volatile long offset = -1;
+
+    private ConsumerMetrics(String name) {
+      this.consumed = counter("consumer.consumed", "consumer", name);
+      this.offsetStores = counter("consumer.offset.stores", "consumer", name);
+      Gauge.builder(PREFIX + ".consumer.offset", this, m -> m.offset)
+          .tag("consumer", name)
+          .register(registry);
+      Gauge.builder(PREFIX + ".consumer.stored.offset", this, m -> m.storedOffset.get())
+          .tag("consumer", name)
+          .register(registry);
+      // messages to process again if the consumer restarts from its stored offset
+      Gauge.builder(
+              PREFIX + ".consumer.lag", this, m -> Math.max(0, m.offset - m.storedOffset.get()))
+          .tag("consumer", name)
+          .register(registry);
+      this.handlerTime = latency("consumer.handler.time", "consumer", name);
+    }
+
+    void stored(long offset) {
+      offsetStores.increment();
+      storedOffset.accumulate(offset);
+    }
+  }
+
+  private static class InstrumentedConsumer implements Consumer {
+
+    private final ConsumerMetrics metrics;
+    private final Consumer delegate;
+
+    private InstrumentedConsumer(ConsumerMetrics metrics, Consumer delegate) {
+      this.metrics = metrics;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void store(long offset) {
+      delegate.store(offset);
+      metrics.stored(offset);
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+
+  // the handler is also the context of the delegate, so nothing is allocated for each message
+  private static class InstrumentedHandler implements MessageHandler, MessageHandler.Context {
+
+    private final ConsumerMetrics metrics;
+    private final MessageHandler delegate;
+    // dispatching thread only
+    private Context context;
+    private InstrumentedConsumer consumer;
+
+    private InstrumentedHandler(ConsumerMetrics metrics, MessageHandler delegate) {
+      this.metrics = metrics;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void handle(Context context, Message message) {
+      long start = System.nanoTime();
+      metrics.offset = context.offset();
+      metrics.consumed.increment();
+      if (consumer == null || consumer.delegate != context.consumer()) {
+        consumer = new InstrumentedConsumer(metrics, context.consumer());
+      }
+      this.context = context;
+      delegate.handle(this, message);
+      metrics.handlerTime.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public long offset() {
+      return context.offset();
+    }
+
+    @Override
+    public void storeOffset() {
+      context.storeOffset();
+      metrics.stored(context.offset());
+    }
+
+    @Override
+    public Consumer consumer() {
+      return consumer;
+    }
+  }
+}
@@ -0,0 +1,287 @@
+package com.rabbitmq.stream;
+
+import com.rabbitmq.stream.compression.Compression;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Publishes messages in sub-entries, batches of messages stored as one entry of the stream,
+ * optionally compressed.
+ *
+ * <p>Settings: <code>-Dstream.sub.entry.size</code> (messages by sub-entry, default is 100), <code>
+ * -Dstream.compression</code> (<code>none</code>, the default, <code>gzip</code>, <code>
+ * snappy</code>, <code>lz4</code> or <code>zstd</code>) and <code>-Dstream.messages</code> (default
+ * is 1,000,000). Consumers decompress sub-entries transparently.
+ */
+public class SubEntryBatching {
+
+  static final String STREAM = "sub-entry-batching-stream";
+
+  static void log(String format, Object... arguments) {
+    System.out.println(String.format(format, arguments));
+  }
+
+  public static class Publish {
+
+    public static void main(String[] args) throws Exception {
+      int subEntrySize = Integer.getInteger("stream.sub.entry.size", 100);
+      Compression compression = compression(System.getProperty("stream.compression", "none"));
+      int messageCount = Integer.getInteger("stream.messages", 1_000_000);
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+
+        log("Connected");
+
+        log("Creating stream...");
+        environment.streamCreator().stream(STREAM).create();
+        log("Stream created");
+
+        log(
+            "Sending %,d messages, sub-entry size %d, compression %s",
+            messageCount, subEntrySize, compression);
+        Result result = publish(environment, STREAM, subEntrySize, compression, messageCount);
+        log(
+            "All messages confirmed? %s (%d ms, %,d msg/s, confirm latency %s, CPU %s, disk %s)",
+            result.done ? "yes" : "no",
+            TimeUnit.NANOSECONDS.toMillis(result.durationInNanos),
+            result.rate(),
+            result.latencySummary(),
+            result.cpuInNanos < 0
+                ? "n/a"
+                : TimeUnit.NANOSECONDS.toMillis(result.cpuInNanos) + " ms",
+            result.diskBytes < 0 ? "n/a" : String.format("%,d bytes", result.diskBytes));
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  public static class Consume {
+
+    public static void main(String[] args) throws Exception {
+      int messageCount = Integer.getInteger("stream.messages", 1_000_000);
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+
+        log("Connected");
+
+        AtomicLong consumed = new AtomicLong(0);
+        AtomicLong outOfOrder = new AtomicLong(0);
+        AtomicLong lastId = new AtomicLong(-1);
+        long start = System.currentTimeMillis();
+        log("Start consumer...");
+        Consumer consumer =
+            environment.consumerBuilder().stream(STREAM)
+                .offset(OffsetSpecification.first())
+                .messageHandler(
+                    (context, message) -> {
+                      // IDs restart at 0 for each publishing run
+                      long id = message.getProperties().getMessageIdAsLong();
+                      if (id != 0 && id != lastId.get() + 1) {
+                        outOfOrder.incrementAndGet();
+                      }
+                      lastId.set(id);
+                      consumed.incrementAndGet();
+                    })
+                .build();
+
+        Utils.waitAtMost(60, () -> consumed.get() >= messageCount);
+        long duration = System.currentTimeMillis() - start;
+        log(
+            "Consumed %,d messages in %d ms (%,d msg/s), %,d out of order",
+            consumed.get(),
+            duration,
+            consumed.get() * 1000 / Math.max(duration, 1),
+            outOfOrder.get());
+        consumer.close();
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  /**
+   * Publishes the same messages with each combination of sub-entry size and compression, in a new
+   * stream each time, and outputs a line for each run.
+   *
+   * <p>Settings: <code>-Dstream.sub.entry.sizes</code> (default is <code>1,10,100,1000</code>),
+   * <code>-Dstream.compressions</code> (default is all of them) and <code>-Dstream.messages</code>.
+   * On-disk size is available only with the local server, CPU time includes the local server's
+   * threads.
+   */
+  public static class Matrix {
+
+    public static void main(String[] args) throws Exception {
+      List<Integer> subEntrySizes = new ArrayList<>();
+      for (String size : System.getProperty("stream.sub.entry.sizes", "1,10,100,1000").split(",")) {
+        subEntrySizes.add(Integer.parseInt(size.trim()));
+      }
+      List<Compression> compressions = new ArrayList<>();
+      for (String compression :
+          System.getProperty("stream.compressions", "none,gzip,snappy,lz4,zstd").split(",")) {
+        compressions.add(compression(compression.trim()));
+      }
+      int messageCount = Integer.getInteger("stream.messages", 1_000_000);
+      log("Connecting...");
+      try (Environment environment = Utils.environmentBuilder().build()) {
+
+        log("Connected");
+
+        log(
+            "%9s %11s %12s %10s %10s %10s %12s %14s",
+            "sub-entry",
+            "compression",
+            "msg/s",
+            "p50 (ms)",
+            "p99 (ms)",
+            "max (ms)",
+            "CPU (ms)",
+            "disk (bytes)");
+        for (int subEntrySize : subEntrySizes) {
+          for (Compression compression : compressions) {
+            if (subEntrySize == 1 && compression != Compression.NONE) {
+              // compression works only on sub-entries
+              continue;
+            }
+            String stream = STREAM + "-" + subEntrySize + "-" + compression.name().toLowerCase();
+            environment.streamCreator().stream(stream).create();
+            Result result = publish(environment, stream, subEntrySize, compression, messageCount);
+            environment.deleteStream(stream);
+            log(
+                "%9d %11s %,12d %10.2f %10.2f %10.2f %12s %14s",
+                subEntrySize,
+                compression.name().toLowerCase(),
+                result.rate(),
+                result.latency.getValueAtPercentile(50) / 1_000_000.0,
+                result.latency.getValueAtPercentile(99) / 1_000_000.0,
+                result.latency.getMaxValue() / 1_000_000.0,
+                result.cpuInNanos < 0
+                    ? "n/a"
+                    : String.format("%,d", TimeUnit.NANOSECONDS.toMillis(result.cpuInNanos)),
+                result.diskBytes < 0 ? "n/a" : String.format("%,d", result.diskBytes));
+          }
+        }
+        log("Closing environment...");
+      }
+      log("Environment closed");
+    }
+  }
+
+  static Compression compression(String name) {
+    return Compression.valueOf(name.toUpperCase(Locale.ENGLISH));
+  }
+
+  static Result publish(
+      Environment environment,
+      String stream,
+      int subEntrySize,
+      Compression compression,
+      int messageCount)
+      throws InterruptedException {
+    ProducerBuilder builder = environment.producerBuilder().stream(stream);
+    if (subEntrySize > 1) {
+      builder.subEntrySize(subEntrySize).compression(compression);
+    }
+    Producer producer = builder.build();
+    try {
+      CountDownLatch confirmLatch = new CountDownLatch(messageCount);
+      Recorder latency = new Recorder(3);
+      byte[] body = "hello world".getBytes(StandardCharsets.UTF_8);
+      long cpuStart = processCpuTime();
+      long start = System.nanoTime();
+      for (int i = 0; i < messageCount; i++) {
+        Message message =
+            LatencyRecorder.stamp(producer.messageBuilder())
+                .properties()
+                .creationTime(System.currentTimeMillis())
+                .messageId(i)
+                .messageBuilder()
+                .addData(body)
+                .build();
+        long sent = System.nanoTime();
+        producer.send(
+            message,
+            confirmationStatus -> {
+              latency.recordValue(System.nanoTime() - sent);
+              confirmLatch.countDown();
+            });
+      }
+      boolean done = confirmLatch.await(1, TimeUnit.MINUTES);
+      long duration = System.nanoTime() - start;
+      long cpu = cpuStart < 0 ? -1 : processCpuTime() - cpuStart;
+      return new Result(
+          done, duration, messageCount, latency.getIntervalHistogram(), cpu, diskBytes(stream));
+    } finally {
+      producer.close();
+    }
+  }
+
+  private static long processCpuTime() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    } else {
+      return -1;
+    }
+  }
+
+  /** Size of the segment files of the stream with the local server, -1 otherwise. */
+  private static long diskBytes(String stream) {
+    if (!"local".equals(System.getProperty(Utils.SERVER_PROPERTY))) {
+      return -1;
+    }
+    Path directory =
+        Paths.get(
+                System.getProperty(
+                    Utils.LOCAL_SERVER_DIRECTORY_PROPERTY, Utils.LOCAL_SERVER_DIRECTORY))
+            .resolve(stream);
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(file -> file.toString().endsWith(".segment"))
+          .mapToLong(
+              file -> {
+                try {
+                  return Files.size(file);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              })
+          .sum();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static class Result extends PublishResult {
+
+    private final long cpuInNanos;
+    private final long diskBytes;
+
+    Result(
+        boolean done,
+        long durationInNanos,
+        int messageCount,
+        Histogram latency,
+        long cpuInNanos,
+        long diskBytes) {
+      super(done, durationInNanos, messageCount, latency);
+      this.cpuInNanos = cpuInNanos;
+      this.diskBytes = diskBytes;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package com.rabbitmq.stream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sparse index from message creation time to offset, stored in a local file, to start consuming at
+ * a point in time.
+ *
+ * <p>The index is built by a consumer, see {@link #indexer()}, and resumes where it stopped with
+ * {@link #nextOffset()}. A sample is appended to the file each time the creation time progresses by
+ * {@code interval} milliseconds. A sample is the offset of a message and the greatest creation time
+ * of the messages before it, so creation times do not need to be ordered in the stream (e.g. with
+ * several producers): all the messages before the offset {@link #lookup(long)} returns are older
+ * than the requested time. Consumers then skip the few older messages after this offset with {@link
+ * #from(long, MessageHandler)}.
+ *
+ * <p>The index uses the <code>creationTime</code> property, messages without it are not indexed.
+ */
+public class TimestampIndex implements AutoCloseable {
+
+  private static final int SAMPLE_SIZE = 16;
+
+  private final FileChannel channel;
+  private final long interval;
+  private final ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+  // samples [0, size), times are ascending
+  private long[] times = new long[1024];
+  private long[] offsets = new long[1024];
+  private int size = 0;
+  private long maxTime = Long.MIN_VALUE;
+  private long nextOffset = 0;
+
+  private TimestampIndex(FileChannel channel, long interval) {
+    this.channel = channel;
+    this.interval = interval;
+  }
+
+  /** Opens or creates the index file, {@code interval} is the time between samples (ms). */
+  public static TimestampIndex open(Path file, long interval) {
+    try {
+      FileChannel channel =
+          FileChannel.open(
+              file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      TimestampIndex index = new TimestampIndex(channel, interval);
+      // ignores a partially written last sample
+      long sampleCount = channel.size() / SAMPLE_SIZE;
+      ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE * 1024);
+      long position = 0;
+      while (position < sampleCount * SAMPLE_SIZE) {
+        buffer
+            .clear()
+            .limit((int) Math.min(buffer.capacity(), sampleCount * SAMPLE_SIZE - position));
+        while (buffer.hasRemaining()) {
+          channel.read(buffer, position + buffer.position());
+        }
+        buffer.flip();
+        position += buffer.limit();
+        while (buffer.hasRemaining()) {
+          index.append(buffer.getLong(), buffer.getLong());
+        }
+      }
+      channel.position(sampleCount * SAMPLE_SIZE);
+      if (index.size > 0) {
+        // indexing resumes at the last sample, the messages after it are indexed again
+        index.maxTime = index.times[index.size - 1];
+        index.nextOffset = index.offsets[index.size - 1];
+      }
+      return index;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void append(long time, long offset) {
+    if (size == times.length) {
+      times = Arrays.copyOf(times, size * 2);
+      offsets = Arrays.copyOf(offsets, size * 2);
+    }
+    times[size] = time;
+    offsets[size] = offset;
+    size++;
+  }
+
+  /** Adds the message at the offset, offsets already indexed are ignored. */
+  public synchronized void add(long offset, long creationTime) {
+    if (offset < nextOffset) {
+      return;
+    }
+    if (size == 0 || maxTime >= times[size - 1] + interval) {
+      if (size == 0 || offset > offsets[size - 1]) {
+        append(maxTime, offset);
+        sample.clear();
+        sample.putLong(maxTime).putLong(offset).flip();
+        try {
+          while (sample.hasRemaining()) {
+            channel.write(sample);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+    maxTime = Math.max(maxTime, creationTime);
+    nextOffset = offset + 1;
+  }
+
+  /** Handler that adds each message to the index. */
+  public MessageHandler indexer() {
+    return (context, message) -> {
+      if (message.getProperties() != null && message.getProperties().getCreationTime() > 0) {
+        add(context.offset(), message.getProperties().getCreationTime());
+      }
+    };
+  }
+
+  /** The offset to resume indexing from. */
+  public synchronized long nextOffset() {
+    return nextOffset;
+  }
+
+  public synchronized int samples() {
+    return size;
+  }
+
+  /**
+   * Offset to start from to get all the messages created at or after the timestamp, -1 if the index
+   * is empty.
+   *
+   * <p>Messages after the last sample are not indexed, so the returned offset is correct for any
+   * timestamp, but it may be far from the messages of a timestamp after the indexed part of the
+   * stream.
+   */
+  public synchronized long lookup(long timestamp) {
+    if (size == 0) {
+      return -1;
+    }
+    // last sample with all the messages before it strictly older than the timestamp
+    int low = 0;
+    int high = size - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (times[middle] < timestamp) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return offsets[low];
+  }
+
+  /**
+   * Where to subscribe to get the messages created at or after the timestamp: the offset from the
+   * index, or the timestamp, which the broker resolves to a chunk, if the index is empty or if the
+   * timestamp is after the indexed part of the stream.
+   */
+  public synchronized OffsetSpecification offsetSpecification(long timestamp) {
+    long offset = lookup(timestamp);
+    // all the indexed messages are older, the last sample can be far from the timestamp
+    return offset < 0 || timestamp > maxTime
+        ? OffsetSpecification.timestamp(timestamp)
+        : OffsetSpecification.offset(offset);
+  }
+
+  /** Handler that passes on only the messages created at or after the timestamp. */
+  public static MessageHandler from(long timestamp, MessageHandler delegate) {
+    return (context, message) -> {
+      if (message.getProperties() == null
+          || message.getProperties().getCreationTime() >= timestamp) {
+        delegate.handle(context, message);
+      }
+    };
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      channel.force(false);
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -1,11 +1,79 @@
 package com.rabbitmq.stream;
 
+import com.rabbitmq.stream.codec.QpidProtonCodec;
+import com.rabbitmq.stream.codec.SimpleCodec;
+import com.rabbitmq.stream.codec.SwiftMqCodec;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
 public class Utils {
 
+  static final String SERVER_PROPERTY = "stream.server";
+  static final String URI_PROPERTY = "stream.uri";
+  static final String LOCAL_SERVER_DIRECTORY_PROPERTY = "stream.server.directory";
+  static final String LOCAL_SERVER_DIRECTORY = "target/local-stream-server";
+  static final String CODEC_PROPERTY = "stream.codec";
+
+  private static volatile LocalStreamServer localServer;
+
+  /**
+   * Environment builder for the samples.
+   *
+   * <p>Uses the in-JVM {@link LocalStreamServer} with <code>-Dstream.server=local</code>, otherwise
+   * the broker at <code>-Dstream.uri</code> (default <code>localhost:5552</code>). The codec is set
+   * with <code>-Dstream.codec</code>, see {@link #codec(String)}.
+   */
+  public static EnvironmentBuilder environmentBuilder() {
+    EnvironmentBuilder builder = Environment.builder();
+    if (System.getProperty(CODEC_PROPERTY) != null) {
+      builder.codec(codec(System.getProperty(CODEC_PROPERTY)));
+    }
+    if ("local".equals(System.getProperty(SERVER_PROPERTY))) {
+      return builder.uri(localServer().uri());
+    } else {
+      return builder.uri(System.getProperty(URI_PROPERTY, "rabbitmq-stream://localhost:5552"));
+    }
+  }
+
+  /**
+   * Codec by name: <code>qpid</code> (the client default), <code>swiftmq</code>, <code>simple
+   * </code> (body only, samples that set properties fail with it) or <code>light</code> ({@link
+   * LightCodec}).
+   */
+  public static Codec codec(String name) {
+    switch (name) {
+      case "qpid":
+        return new QpidProtonCodec();
+      case "swiftmq":
+        return new SwiftMqCodec();
+      case "simple":
+        return new SimpleCodec();
+      case "light":
+        return new LightCodec();
+      default:
+        throw new IllegalArgumentException("Unknown codec: " + name);
+    }
+  }
+
+  static LocalStreamServer localServer() {
+    if (localServer == null) {
+      synchronized (Utils.class) {
+        if (localServer == null) {
+          LocalStreamServer server =
+              LocalStreamServer.start(
+                  Paths.get(
+                      System.getProperty(LOCAL_SERVER_DIRECTORY_PROPERTY, LOCAL_SERVER_DIRECTORY)),
+                  0);
+          Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+          localServer = server;
+        }
+      }
+    }
+    return localServer;
+  }
+
   public static Duration waitUntil(BooleanSupplier condition) throws InterruptedException {
     return waitAtMost(10, condition, null);
   }
@@ -0,0 +1,69 @@
+package com.rabbitmq.stream;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads when the JVM has them (Java 21 or later).
+ *
+ * <p>The JAR is multi-release: built with JDK 21, it contains a version of this class that uses the
+ * virtual thread API directly (<code>src/main/java21</code>). This version, for Java 8, looks the
+ * API up by reflection, for Java 21 runtimes that do not use the JAR (e.g. <code>exec:java
+ * </code> runs the samples from <code>target/classes</code>).
+ */
+public final class VirtualThreads {
+
+  private static final ThreadFactoryProvider PROVIDER = provider();
+
+  private VirtualThreads() {}
+
+  private static ThreadFactoryProvider provider() {
+    try {
+      Method ofVirtual = Thread.class.getMethod("ofVirtual");
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Method name = builderClass.getMethod("name", String.class, long.class);
+      Method factory = builderClass.getMethod("factory");
+      // fails on Java 19 and 20 if preview features are not enabled
+      ofVirtual.invoke(null);
+      return prefix ->
+          (ThreadFactory) factory.invoke(name.invoke(ofVirtual.invoke(null), prefix, 0L));
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  public static boolean available() {
+    return PROVIDER != null;
+  }
+
+  /**
+   * Executor that starts a new virtual thread for each task, threads are named with the prefix and
+   * a counter.
+   *
+   * @throws UnsupportedOperationException if the JVM does not have virtual threads
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+    if (PROVIDER == null) {
+      throw new UnsupportedOperationException(
+          "Virtual threads require Java 21 or later, current is "
+              + System.getProperty("java.version"));
+    }
+    try {
+      ThreadFactory threadFactory = PROVIDER.threadFactory(prefix);
+      return (ExecutorService)
+          Executors.class
+              .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+              .invoke(null, threadFactory);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Error while creating virtual thread executor", e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface ThreadFactoryProvider {
+
+    ThreadFactory threadFactory(String prefix) throws ReflectiveOperationException;
+  }
+}
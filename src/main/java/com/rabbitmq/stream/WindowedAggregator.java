@@ -0,0 +1,285 @@
+package com.rabbitmq.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Message and byte counts by key (e.g. the routing key) over time windows of the creation time of
+ * messages, computed incrementally by a consumer.
+ *
+ * <p>Windows are tumbling (the slide is the size) or sliding (the size is a multiple of the slide).
+ * Counts are kept in panes of the slide duration, with a <code>long</code> array for all the keys
+ * in each pane, and a window is the sum of its panes. A window is complete when the greatest
+ * creation time seen so far minus the allowed lateness passes its end, it is then given to the
+ * {@link Listener} and the panes no window needs anymore are dropped. Messages older than the
+ * oldest pane are counted as late and ignored. All-time totals by key are kept as well.
+ *
+ * <p>The state is saved with the offset of the last aggregated message in a local file, see {@link
+ * #snapshot(long)}, so a restarted consumer resumes after this offset instead of aggregating the
+ * stream from the beginning. Windows completed between the last snapshot and a crash are given
+ * again to the listener after a restart. The aggregator is not thread-safe, it is meant to be used
+ * from the dispatching thread of a consumer.
+ */
+public class WindowedAggregator {
+
+  private static final int MAGIC = 0x57414731; // WAG1
+
+  private final Path file;
+  private final long size;
+  private final long slide;
+  private final long lateness;
+  private final Listener listener;
+  private final Map<String, Integer> keyIndexes = new HashMap<>();
+  private final List<String> keys = new ArrayList<>();
+  // pane start -> count and bytes of each key, at 2 * index and 2 * index + 1
+  private final TreeMap<Long, long[]> panes = new TreeMap<>();
+  private long[] totals = new long[0];
+  private long maxTime = Long.MIN_VALUE;
+  private long nextWindowEnd = Long.MIN_VALUE;
+  private long offset = -1;
+  private long late = 0;
+  private long untimed = 0;
+
+  private WindowedAggregator(
+      Path file, long sizeInMs, long slideInMs, long latenessInMs, Listener listener) {
+    if (sizeInMs <= 0 || slideInMs <= 0 || sizeInMs % slideInMs != 0 || latenessInMs < 0) {
+      throw new IllegalArgumentException(
+          "The window size must be a multiple of the slide and the lateness must be positive");
+    }
+    this.file = file;
+    this.size = sizeInMs;
+    this.slide = slideInMs;
+    this.lateness = latenessInMs;
+    this.listener = listener;
+  }
+
+  /**
+   * Loads the state from the file, or creates an empty aggregator if the file does not exist. The
+   * state is ignored if it was saved with other window settings.
+   */
+  public static WindowedAggregator load(
+      Path file, long sizeInMs, long slideInMs, long latenessInMs, Listener listener) {
+    WindowedAggregator aggregator =
+        new WindowedAggregator(file, sizeInMs, slideInMs, latenessInMs, listener);
+    if (Files.exists(file)) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+        if (in.readInt() != MAGIC) {
+          throw new IllegalStateException("Not a windowed aggregation: " + file);
+        }
+        if (in.readLong() != sizeInMs
+            || in.readLong() != slideInMs
+            || in.readLong() != latenessInMs) {
+          return aggregator;
+        }
+        aggregator.offset = in.readLong();
+        aggregator.maxTime = in.readLong();
+        aggregator.nextWindowEnd = in.readLong();
+        aggregator.late = in.readLong();
+        aggregator.untimed = in.readLong();
+        int keyCount = in.readInt();
+        for (int i = 0; i < keyCount; i++) {
+          aggregator.keyIndex(in.readUTF());
+        }
+        for (int i = 0; i < aggregator.totals.length; i++) {
+          aggregator.totals[i] = in.readLong();
+        }
+        int paneCount = in.readInt();
+        for (int i = 0; i < paneCount; i++) {
+          long start = in.readLong();
+          long[] counts = new long[keyCount * 2];
+          for (int j = 0; j < counts.length; j++) {
+            counts[j] = in.readLong();
+          }
+          aggregator.panes.put(start, counts);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return aggregator;
+  }
+
+  /** Handler that aggregates messages with the key the function returns. */
+  public MessageHandler aggregator(Function<Message, String> keyFunction) {
+    return (context, message) -> {
+      long creationTime =
+          message.getProperties() == null ? 0 : message.getProperties().getCreationTime();
+      byte[] body = message.getBodyAsBinary();
+      add(keyFunction.apply(message), creationTime, body == null ? 0 : body.length);
+    };
+  }
+
+  /** Aggregates a message, messages without a creation time are only counted as untimed. */
+  public void add(String key, long creationTime, int bytes) {
+    if (creationTime <= 0) {
+      untimed++;
+      return;
+    }
+    if (nextWindowEnd == Long.MIN_VALUE) {
+      // the first window that contains the first message
+      nextWindowEnd = Math.floorDiv(creationTime, slide) * slide + slide;
+    }
+    int index = keyIndex(key == null ? "" : key);
+    long paneStart = Math.floorDiv(creationTime, slide) * slide;
+    if (paneStart < nextWindowEnd - size) {
+      late++;
+      return;
+    }
+    long[] pane = panes.get(paneStart);
+    if (pane == null || pane.length < keys.size() * 2) {
+      pane = pane == null ? new long[keys.size() * 2] : Arrays.copyOf(pane, keys.size() * 2);
+      panes.put(paneStart, pane);
+    }
+    pane[index * 2]++;
+    pane[index * 2 + 1] += bytes;
+    totals[index * 2]++;
+    totals[index * 2 + 1] += bytes;
+    if (creationTime > maxTime) {
+      maxTime = creationTime;
+      complete(maxTime - lateness);
+    }
+  }
+
+  private int keyIndex(String key) {
+    Integer index = keyIndexes.get(key);
+    if (index == null) {
+      index = keys.size();
+      keys.add(key);
+      keyIndexes.put(key, index);
+      totals = Arrays.copyOf(totals, keys.size() * 2);
+    }
+    return index;
+  }
+
+  /** Gives the windows that end before the watermark to the listener. */
+  private void complete(long watermark) {
+    while (nextWindowEnd <= watermark) {
+      if (panes.isEmpty()) {
+        nextWindowEnd = Math.floorDiv(watermark, slide) * slide + slide;
+        return;
+      }
+      long firstPane = panes.firstKey();
+      if (firstPane >= nextWindowEnd) {
+        // no message in the window, skips to the first window with the next pane
+        nextWindowEnd = firstPane + slide;
+        continue;
+      }
+      long start = nextWindowEnd - size;
+      long[] window = new long[keys.size() * 2];
+      for (long[] pane : panes.subMap(start, nextWindowEnd).values()) {
+        for (int i = 0; i < pane.length; i++) {
+          window[i] += pane[i];
+        }
+      }
+      for (int i = 0; i < keys.size(); i++) {
+        if (window[i * 2] > 0) {
+          listener.window(start, nextWindowEnd, keys.get(i), window[i * 2], window[i * 2 + 1]);
+        }
+      }
+      nextWindowEnd += slide;
+      // panes before the start of the next window are not needed anymore
+      Iterator<Long> iterator = panes.keySet().iterator();
+      while (iterator.hasNext() && iterator.next() < nextWindowEnd - size) {
+        iterator.remove();
+      }
+    }
+  }
+
+  public List<String> keys() {
+    return new ArrayList<>(keys);
+  }
+
+  /** Number of messages of the key since the first aggregated message. */
+  public long totalCount(String key) {
+    Integer index = keyIndexes.get(key);
+    return index == null ? 0 : totals[index * 2];
+  }
+
+  /** Number of body bytes of the key since the first aggregated message. */
+  public long totalBytes(String key) {
+    Integer index = keyIndexes.get(key);
+    return index == null ? 0 : totals[index * 2 + 1];
+  }
+
+  /** Offset of the last snapshot, -1 if there is none. */
+  public long offset() {
+    return offset;
+  }
+
+  public long late() {
+    return late;
+  }
+
+  public long untimed() {
+    return untimed;
+  }
+
+  /** Panes currently in memory. */
+  public int panes() {
+    return panes.size();
+  }
+
+  /**
+   * Writes the state with the offset of the last aggregated message to a temporary file and
+   * replaces the previous one, so the state and the offset are always consistent.
+   */
+  public void snapshot(long offset) {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeLong(size);
+        out.writeLong(slide);
+        out.writeLong(lateness);
+        out.writeLong(offset);
+        out.writeLong(maxTime);
+        out.writeLong(nextWindowEnd);
+        out.writeLong(late);
+        out.writeLong(untimed);
+        out.writeInt(keys.size());
+        for (String key : keys) {
+          out.writeUTF(key);
+        }
+        for (long total : totals) {
+          out.writeLong(total);
+        }
+        out.writeInt(panes.size());
+        for (Map.Entry<Long, long[]> pane : panes.entrySet()) {
+          out.writeLong(pane.getKey());
+          long[] counts = Arrays.copyOf(pane.getValue(), keys.size() * 2);
+          for (long count : counts) {
+            out.writeLong(count);
+          }
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+      this.offset = offset;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Receives the counts of a key for a complete window, from start (inclusive) to end. */
+  @FunctionalInterface
+  public interface Listener {
+
+    void window(long start, long end, String key, long count, long bytes);
+  }
+}
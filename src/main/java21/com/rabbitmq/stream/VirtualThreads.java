@@ -0,0 +1,26 @@
+package com.rabbitmq.stream;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads, version of the multi-release JAR for Java 21 and later.
+ *
+ * <p>Same API as the Java 8 version in <code>src/main/java</code>.
+ */
+public final class VirtualThreads {
+
+  private VirtualThreads() {}
+
+  public static boolean available() {
+    return true;
+  }
+
+  /**
+   * Executor that starts a new virtual thread for each task, threads are named with the prefix and
+   * a counter.
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory());
+  }
+}